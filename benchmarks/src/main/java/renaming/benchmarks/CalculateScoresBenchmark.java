@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import renaming.renamers.INGramIdentifierRenamer.Renaming;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmark AbstractIdentifierRenamings.calculateScores() for a varying
+ * number of alternative names.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CalculateScoresBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int nAlternatives;
+
+	private Set<String> alternatives;
+
+	@Benchmark
+	public SortedSet<Renaming> calculateScores(final TrainedModelState model) {
+		return model.renamer.calculateScores(model.snippetNGrams,
+				alternatives, model.scope);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(final TrainedModelState model) {
+		final List<String> vocabulary = Lists.newArrayList(Sets
+				.newTreeSet(model.renamer.getLM().getTrie().getVocabulary()));
+		alternatives = Sets.newTreeSet(vocabulary.subList(0,
+				Math.min(nAlternatives, vocabulary.size())));
+	}
+}
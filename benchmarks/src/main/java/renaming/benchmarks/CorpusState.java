@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The corpus that all benchmarks train and test on.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+	public static final long SEED = 42;
+
+	@Param({ "200" })
+	public int corpusSize;
+
+	public List<File> files;
+
+	/**
+	 * The file on which the queries are made.
+	 */
+	public File targetFile;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		files = SyntheticJavaCorpus.getCorpus(corpusSize, SEED);
+		targetFile = files.get(0);
+	}
+}
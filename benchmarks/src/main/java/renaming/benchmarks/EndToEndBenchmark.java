@@ -0,0 +1,284 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import renaming.evaluation.NamingEvaluator;
+import renaming.evaluation.NamingEvaluator.ResultObject;
+import renaming.formatting.FormattingEvaluation;
+import renaming.renamers.BaseIdentifierRenamings;
+import renaming.tools.JavaRepositoryRenamingSuggestor;
+import codemining.java.codeutils.scopes.VariableScopeExtractor;
+import codemining.java.tokenizers.JavaTokenizer;
+import codemining.java.tokenizers.JavaWhitespaceTokenizer;
+import codemining.languagetools.IScopeExtractor;
+import codemining.languagetools.Scope.ScopeType;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A reproducible end-to-end benchmark. Generates a fixed corpus from a seed,
+ * runs NamingEvaluator, FormattingEvaluation and
+ * JavaRepositoryRenamingSuggestor on it and writes the throughput, peak heap
+ * and GC time of each stage as JSON.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class EndToEndBenchmark {
+
+	/**
+	 * Struct class containing the measurements of a single stage.
+	 *
+	 */
+	public static class StageResult {
+		public final String stage;
+		public final long nFiles;
+		/**
+		 * What the stage processes, e.g. identifiers or tokens.
+		 */
+		public final String unit;
+		public final long nUnits;
+		public final double seconds;
+		public final long peakHeapBytes;
+		public final long gcMillis;
+
+		public StageResult(final String stage, final long nFiles,
+				final String unit, final long nUnits, final double seconds,
+				final long peakHeapBytes, final long gcMillis) {
+			this.stage = stage;
+			this.nFiles = nFiles;
+			this.unit = unit;
+			this.nUnits = nUnits;
+			this.seconds = seconds;
+			this.peakHeapBytes = peakHeapBytes;
+			this.gcMillis = gcMillis;
+		}
+
+		public void writeTo(final JsonWriter json) throws IOException {
+			json.beginObject();
+			json.name("stage").value(stage);
+			json.name("files").value(nFiles);
+			json.name(unit).value(nUnits);
+			json.name("seconds").value(seconds);
+			json.name("filesPerSecond").value(nFiles / seconds);
+			json.name(unit + "PerSecond").value(nUnits / seconds);
+			json.name("peakHeapBytes").value(peakHeapBytes);
+			json.name("gcMillis").value(gcMillis);
+			json.endObject();
+		}
+	}
+
+	/**
+	 * Measure a single stage.
+	 *
+	 */
+	private static abstract class Stage {
+		final String name;
+
+		Stage(final String name) {
+			this.name = name;
+		}
+
+		abstract void run() throws Exception;
+	}
+
+	private static long getGcMillis() {
+		long total = 0;
+		for (final GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	private static long getPeakHeap() {
+		long peak = 0;
+		for (final MemoryPoolMXBean pool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length != 4) {
+			System.err
+					.println("Usage <nTrainFiles> <nTestFiles> <seed> <outputJsonFile>");
+			System.exit(-1);
+		}
+		final int nTrainFiles = Integer.parseInt(args[0]);
+		final int nTestFiles = Integer.parseInt(args[1]);
+		final long seed = Long.parseLong(args[2]);
+
+		final File corpusDir = File.createTempFile("naturalize", "benchmark");
+		corpusDir.delete();
+		final File trainDir = new File(corpusDir, "train");
+		final File testDir = new File(corpusDir, "test");
+		trainDir.mkdirs();
+		testDir.mkdirs();
+		try {
+			final List<File> trainFiles = SyntheticJavaCorpus.generate(
+					trainDir, nTrainFiles, seed);
+			final List<File> testFiles = SyntheticJavaCorpus.generate(testDir,
+					nTestFiles, seed + 1);
+			final EndToEndBenchmark benchmark = new EndToEndBenchmark(
+					trainFiles, testFiles, corpusDir, testDir);
+			final List<StageResult> results = benchmark.runAll();
+
+			final JsonWriter json = new JsonWriter(new FileWriter(args[3]));
+			try {
+				json.setIndent("  ");
+				json.beginObject();
+				json.name("seed").value(seed);
+				json.name("trainFiles").value(nTrainFiles);
+				json.name("testFiles").value(nTestFiles);
+				json.name("stages").beginArray();
+				for (final StageResult result : results) {
+					result.writeTo(json);
+				}
+				json.endArray();
+				json.endObject();
+			} finally {
+				json.close();
+			}
+		} finally {
+			FileUtils.deleteDirectory(corpusDir);
+		}
+	}
+
+	private final List<File> trainFiles;
+
+	private final List<File> testFiles;
+
+	private final File corpusDir;
+
+	private final File testDir;
+
+	private final IScopeExtractor scopeExtractor = new VariableScopeExtractor.VariableScopeSnippetExtractor();
+
+	public EndToEndBenchmark(final List<File> trainFiles,
+			final List<File> testFiles, final File corpusDir,
+			final File testDir) {
+		this.trainFiles = trainFiles;
+		this.testFiles = testFiles;
+		this.corpusDir = corpusDir;
+		this.testDir = testDir;
+	}
+
+	private long countTokens(final List<File> files) throws IOException {
+		final JavaWhitespaceTokenizer tokenizer = new JavaWhitespaceTokenizer();
+		long count = 0;
+		for (final File f : files) {
+			count += tokenizer.tokenListFromCode(
+					FileUtils.readFileToString(f).toCharArray()).size();
+		}
+		return count;
+	}
+
+	private long countIdentifiers(final List<File> files) throws IOException {
+		long count = 0;
+		for (final File f : files) {
+			count += scopeExtractor.getFromFile(f).size();
+		}
+		return count;
+	}
+
+	/**
+	 * Run the stage, measuring it. The standard output of the stage is
+	 * discarded.
+	 *
+	 * @param stage
+	 * @param nFiles
+	 * @param unit
+	 *            what the stage processes, e.g. identifiers
+	 * @param nUnits
+	 * @return
+	 * @throws Exception
+	 */
+	private StageResult measure(final Stage stage, final long nFiles,
+			final String unit, final long nUnits) throws Exception {
+		System.gc();
+		for (final MemoryPoolMXBean pool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		final long gcBefore = getGcMillis();
+		final PrintStream stdout = System.out;
+		System.setOut(new PrintStream(new NullOutputStream()));
+		final long start = System.nanoTime();
+		try {
+			stage.run();
+		} finally {
+			System.setOut(stdout);
+		}
+		final double seconds = (System.nanoTime() - start) / 1E9;
+		final StageResult result = new StageResult(stage.name, nFiles, unit,
+				nUnits, seconds, getPeakHeap(), getGcMillis() - gcBefore);
+		System.out.println(stage.name + ": " + nFiles / seconds
+				+ " files/sec, " + nUnits / seconds + " " + unit + "/sec");
+		return result;
+	}
+
+	public List<StageResult> runAll() throws Exception {
+		final long nTestIdentifiers = countIdentifiers(testFiles);
+		final List<File> allFiles = Lists.newArrayList(trainFiles);
+		allFiles.addAll(testFiles);
+		// The formatting stage works on whitespace tokens, not identifiers
+		final long nAllTokens = countTokens(allFiles);
+
+		final List<StageResult> results = Lists.newArrayList();
+		results.add(measure(new Stage("NamingEvaluator") {
+			@Override
+			void run() {
+				final ResultObject[] data = new ResultObject[ScopeType.values().length];
+				for (int i = 0; i < data.length; i++) {
+					data[i] = new ResultObject();
+				}
+				final NamingEvaluator evaluator = new NamingEvaluator(
+						trainFiles, data, new BaseIdentifierRenamings(
+								new JavaTokenizer()));
+				evaluator.performEvaluation(testFiles, scopeExtractor);
+			}
+		}, testFiles.size(), "identifiers", nTestIdentifiers));
+
+		results.add(measure(new Stage("FormattingEvaluation") {
+			@Override
+			void run() {
+				new FormattingEvaluation(allFiles).performEvaluation();
+			}
+		}, allFiles.size(), "tokens", nAllTokens));
+
+		results.add(measure(new Stage("JavaRepositoryRenamingSuggestor") {
+			@Override
+			void run() throws IOException {
+				JavaRepositoryRenamingSuggestor.main(new String[] {
+						corpusDir.getAbsolutePath(),
+						testDir.getAbsolutePath() });
+			}
+		}, testFiles.size(), "identifiers", nTestIdentifiers));
+
+		return results;
+	}
+
+}
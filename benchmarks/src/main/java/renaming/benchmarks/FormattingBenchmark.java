@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import renaming.formatting.FormattingRenamings;
+import renaming.renamers.INGramIdentifierRenamer.Renaming;
+import codemining.lm.ngram.AbstractNGramLM;
+import codemining.lm.ngram.NGram;
+
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmark FormattingRenamings.calculateScores() for a single whitespace
+ * position, using the whole vocabulary as alternatives.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormattingBenchmark {
+
+	private FormattingRenamings renamer;
+
+	private Multiset<NGram<String>> ngrams;
+
+	private Set<String> alternatives;
+
+	@Benchmark
+	public SortedSet<Renaming> calculateScores() {
+		return renamer.calculateScores(ngrams, alternatives, null);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(final CorpusState corpus) throws IOException {
+		renamer = new FormattingRenamings();
+		renamer.buildModel(corpus.files);
+
+		final List<String> tokens = renamer.tokenizeCode(FileUtils
+				.readFileToString(corpus.targetFile).toCharArray());
+		int wsPosition = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			if (tokens.get(i).startsWith("WS_")) {
+				wsPosition = i;
+				break;
+			}
+		}
+		ngrams = renamer.getNGramsAround(wsPosition, tokens);
+		alternatives = Sets.newTreeSet(renamer.getNgramLM().getTrie()
+				.getVocabulary());
+		alternatives.add(AbstractNGramLM.UNK_SYMBOL);
+	}
+}
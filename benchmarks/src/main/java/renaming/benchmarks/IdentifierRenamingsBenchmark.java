@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import renaming.renamers.INGramIdentifierRenamer.Renaming;
+
+import com.google.common.collect.Multiset;
+
+/**
+ * Benchmark the renaming queries of AbstractIdentifierRenamings.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IdentifierRenamingsBenchmark {
+
+	@Benchmark
+	public Multiset<String> getAlternativeNames(final TrainedModelState model) {
+		return model.renamer.getAlternativeNames(model.snippetNGrams,
+				model.identifier);
+	}
+
+	@Benchmark
+	public SortedSet<Renaming> getRenamingsForBinding(
+			final TrainedModelState model) {
+		return model.renamer.getRenamings(model.binding);
+	}
+
+	@Benchmark
+	public SortedSet<Renaming> getRenamingsForScope(
+			final TrainedModelState model) {
+		return model.renamer.getRenamings(model.scope, model.identifier);
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import renaming.ngram.IdentifierNeighborsNGramLM;
+import renaming.renamers.BaseIdentifierRenamings;
+import codemining.java.tokenizers.JavaTokenizer;
+
+/**
+ * Benchmark the training throughput of IdentifierNeighborsNGramLM.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NGramTrainingBenchmark {
+
+	@Benchmark
+	public IdentifierNeighborsNGramLM trainModel(final CorpusState corpus)
+			throws IOException {
+		final IdentifierNeighborsNGramLM lm = new IdentifierNeighborsNGramLM(
+				BaseIdentifierRenamings.NGRAM_SIZE, new JavaTokenizer());
+		lm.trainModel(corpus.files);
+		return lm;
+	}
+}
@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import renaming.segmentranking.SnippetScorer;
+import renaming.segmentranking.SnippetScorer.SnippetSuggestions;
+
+/**
+ * Benchmark scoring a whole file with SnippetScorer.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SnippetScorerBenchmark {
+
+	@Benchmark
+	public SnippetSuggestions scoreSnippet(final TrainedModelState model)
+			throws IOException {
+		return SnippetScorer.scoreSnippet(model.targetAst, model.renamer,
+				model.scopeExtractor);
+	}
+}
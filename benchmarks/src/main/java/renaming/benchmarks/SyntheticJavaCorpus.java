@@ -0,0 +1,187 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+
+import codemining.java.tokenizers.JavaTokenizer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Deterministically generate a corpus of Java files from a seed, so that
+ * benchmarks can run offline and on the same data every time. If the system
+ * property naturalize.benchmark.corpus is set, the Java files in that
+ * directory are used instead.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class SyntheticJavaCorpus {
+
+	public static final String CORPUS_PROPERTY = "naturalize.benchmark.corpus";
+
+	private static final String[] NAMES = { "count", "index", "value", "name",
+			"result", "buffer", "size", "node", "item", "list", "map", "key",
+			"total", "offset", "length", "file", "line", "token", "score",
+			"model", "parent", "child", "current", "next", "prev", "data",
+			"start", "end", "text", "path" };
+
+	private static final String[] TYPES = { "int", "long", "double",
+			"boolean", "String", "Object", "StringBuilder" };
+
+	private static final String[] METHODS = { "get", "set", "compute",
+			"update", "find", "add", "remove", "build", "parse", "check" };
+
+	/**
+	 * Return the files of the corpus, generating it in a temporary directory
+	 * if no corpus was given. From a given corpus, a sample of nFiles files
+	 * is taken, which depends only on the seed and the file paths.
+	 *
+	 * @param nFiles
+	 * @param seed
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> getCorpus(final int nFiles, final long seed)
+			throws IOException {
+		final String corpusDir = System.getProperty(CORPUS_PROPERTY);
+		if (corpusDir != null) {
+			return sample(FileUtils.listFiles(new File(corpusDir),
+					JavaTokenizer.javaCodeFileFilter,
+					DirectoryFileFilter.DIRECTORY), nFiles, seed);
+		}
+		final File directory = File.createTempFile("naturalize", "corpus");
+		directory.delete();
+		directory.mkdir();
+		directory.deleteOnExit();
+		return generate(directory, nFiles, seed);
+	}
+
+	/**
+	 * Return a random sample of (at most) nFiles files. The files are sorted
+	 * first, since the order they are listed in is unspecified.
+	 *
+	 * @param files
+	 * @param nFiles
+	 * @param seed
+	 * @return
+	 */
+	public static List<File> sample(final Collection<File> files,
+			final int nFiles, final long seed) {
+		final List<File> sorted = Lists.newArrayList(files);
+		Collections.sort(sorted);
+		Collections.shuffle(sorted, new Random(seed));
+		return Lists.newArrayList(sorted.subList(0,
+				Math.min(nFiles, sorted.size())));
+	}
+
+	/**
+	 * Generate nFiles Java files in the directory.
+	 *
+	 * @param directory
+	 * @param nFiles
+	 * @param seed
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<File> generate(final File directory, final int nFiles,
+			final long seed) throws IOException {
+		final Random random = new Random(seed);
+		final List<File> files = Lists.newArrayList();
+		for (int i = 0; i < nFiles; i++) {
+			final String className = "Synthetic" + i;
+			final File file = new File(directory, className + ".java");
+			FileUtils.writeStringToFile(file, generateClass(className, random));
+			file.deleteOnExit();
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * Generate the code of a single class.
+	 *
+	 * @param className
+	 * @param random
+	 * @return
+	 */
+	public static String generateClass(final String className,
+			final Random random) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("package synthetic;\n\n");
+		sb.append("public class ").append(className).append(" {\n\n");
+
+		final int nFields = 2 + random.nextInt(5);
+		for (int i = 0; i < nFields; i++) {
+			sb.append("\tprivate ").append(pick(TYPES, random)).append(' ')
+					.append(pick(NAMES, random)).append(i).append(";\n");
+		}
+		sb.append('\n');
+
+		final int nMethods = 2 + random.nextInt(6);
+		for (int i = 0; i < nMethods; i++) {
+			appendMethod(sb, i, random);
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private static void appendMethod(final StringBuilder sb,
+			final int methodId, final Random random) {
+		final String param = pick(NAMES, random);
+		final String local = pick(NAMES, random) + "Value";
+		final String counter = random.nextBoolean() ? "i" : "j";
+		sb.append("\tpublic int ").append(pick(METHODS, random))
+				.append(capitalize(pick(NAMES, random))).append(methodId)
+				.append("(final int ").append(param).append(") {\n");
+		sb.append("\t\tint ").append(local).append(" = ").append(param)
+				.append(";\n");
+		sb.append("\t\tfor (int ").append(counter).append(" = 0; ")
+				.append(counter).append(" < ").append(param).append("; ")
+				.append(counter).append("++) {\n");
+		final int nStatements = 1 + random.nextInt(4);
+		for (int i = 0; i < nStatements; i++) {
+			switch (random.nextInt(3)) {
+			case 0:
+				sb.append("\t\t\t").append(local).append(" += ")
+						.append(counter).append(";\n");
+				break;
+			case 1:
+				sb.append("\t\t\tif (").append(local).append(" > ")
+						.append(random.nextInt(100)).append(") {\n");
+				sb.append("\t\t\t\t").append(local).append(" -= ")
+						.append(param).append(";\n");
+				sb.append("\t\t\t}\n");
+				break;
+			default:
+				sb.append("\t\t\t").append(local).append(" = ").append(local)
+						.append(" * ").append(counter).append(" % ")
+						.append(1 + random.nextInt(50)).append(";\n");
+			}
+		}
+		sb.append("\t\t}\n");
+		sb.append("\t\treturn ").append(local).append(";\n");
+		sb.append("\t}\n\n");
+	}
+
+	private static String capitalize(final String name) {
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private static String pick(final String[] elements, final Random random) {
+		return elements[random.nextInt(elements.length)];
+	}
+
+	private SyntheticJavaCorpus() {
+	}
+}
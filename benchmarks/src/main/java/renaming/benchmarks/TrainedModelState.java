@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package renaming.benchmarks;
+
+import java.io.IOException;
+import java.util.Map.Entry;
+
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import renaming.renamers.BaseIdentifierRenamings;
+import codemining.java.codeutils.JavaASTExtractor;
+import codemining.java.codeutils.binding.JavaApproximateVariableBindingExtractor;
+import codemining.java.codeutils.scopes.VariableScopeExtractor;
+import codemining.java.tokenizers.JavaTokenizer;
+import codemining.languagetools.IScopeExtractor;
+import codemining.languagetools.Scope;
+import codemining.languagetools.bindings.TokenNameBinding;
+import codemining.lm.ngram.NGram;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+
+/**
+ * An identifier renamer trained on the corpus, along with the queries that
+ * the benchmarks make.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+public class TrainedModelState {
+
+	public BaseIdentifierRenamings renamer;
+
+	public IScopeExtractor scopeExtractor;
+
+	public Scope scope;
+
+	public String identifier;
+
+	public TokenNameBinding binding;
+
+	public Multiset<NGram<String>> snippetNGrams;
+
+	public CompilationUnit targetAst;
+
+	@Setup(Level.Trial)
+	public void setUp(final CorpusState corpus) throws IOException {
+		renamer = new BaseIdentifierRenamings(new JavaTokenizer());
+		renamer.buildRenamingModel(corpus.files);
+
+		scopeExtractor = new VariableScopeExtractor.VariableScopeSnippetExtractor();
+		final Multimap<Scope, String> scopes = scopeExtractor
+				.getFromFile(corpus.targetFile);
+		final Entry<Scope, String> query = scopes.entries().iterator().next();
+		scope = query.getKey();
+		identifier = query.getValue();
+		snippetNGrams = renamer.getSnippetNGrams(scope.code, identifier);
+
+		binding = Iterables.getFirst(new JavaApproximateVariableBindingExtractor()
+				.getResolvedSourceCode(corpus.targetFile, n -> true)
+				.getAllBindings(), null);
+
+		targetAst = new JavaASTExtractor(false).getAST(corpus.targetFile);
+	}
+}
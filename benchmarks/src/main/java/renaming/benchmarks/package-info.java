@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks of the renaming and formatting hot paths.
+ */
+package renaming.benchmarks;
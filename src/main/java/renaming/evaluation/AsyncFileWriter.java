@@ -0,0 +1,191 @@
+/**
+ *
+ */
+package renaming.evaluation;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+/**
+ * A buffered file writer that writes from a background thread, so that
+ * threads producing output never contend on the file. Output is guaranteed to
+ * reach the file after flush() or close() return.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class AsyncFileWriter implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(AsyncFileWriter.class
+			.getName());
+
+	/**
+	 * The number of pending writes, after which producers block.
+	 */
+	private static final int QUEUE_SIZE = 4096;
+
+	private static final Object CLOSE = new Object();
+
+	/**
+	 * Contains strings to be written, latches of pending flushes or CLOSE.
+	 */
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(
+			QUEUE_SIZE);
+
+	private final Writer writer;
+
+	private final Thread writerThread;
+
+	/**
+	 * Guards the check of closed and the queuing of items, so that no item
+	 * can be queued after CLOSE. Appends and flushes share the lock, while
+	 * close() takes it exclusively.
+	 */
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+	private boolean closed = false;
+
+	public AsyncFileWriter(final File file) throws IOException {
+		writer = new BufferedWriter(new FileWriter(file));
+		writerThread = new Thread(this::writeLoop, "AsyncFileWriter "
+				+ file.getName());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Queue the text to be written. Blocks only if too many writes are
+	 * pending.
+	 *
+	 * @param text
+	 */
+	public void append(final CharSequence text) {
+		closeLock.readLock().lock();
+		try {
+			if (closed) {
+				LOGGER.warning("Writing to closed writer. Output discarded.");
+				return;
+			}
+			put(text.toString());
+		} finally {
+			closeLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write all pending output and close the file. Further calls only wait
+	 * for the file to be closed.
+	 */
+	@Override
+	public void close() {
+		closeLock.writeLock().lock();
+		try {
+			if (!closed) {
+				closed = true;
+				put(CLOSE);
+			}
+		} finally {
+			closeLock.writeLock().unlock();
+		}
+		try {
+			writerThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Block until all output queued so far has been written to the file.
+	 */
+	public void flush() {
+		final CountDownLatch flushed = new CountDownLatch(1);
+		closeLock.readLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			put(flushed);
+		} finally {
+			closeLock.readLock().unlock();
+		}
+		try {
+			flushed.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void put(final Object item) {
+		try {
+			queue.put(item);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.warning("Interrupted while queuing output. Output discarded.");
+			if (item instanceof CountDownLatch) {
+				((CountDownLatch) item).countDown();
+			}
+		}
+	}
+
+	/**
+	 * Release any flushes that are still queued once the loop has stopped,
+	 * so that no caller waits forever.
+	 */
+	private void releasePendingFlushes() {
+		Object item;
+		while ((item = queue.poll()) != null) {
+			if (item instanceof CountDownLatch) {
+				((CountDownLatch) item).countDown();
+			}
+		}
+	}
+
+	private void writeLoop() {
+		try {
+			while (true) {
+				final Object item;
+				try {
+					item = queue.take();
+				} catch (final InterruptedException e) {
+					LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+					return;
+				}
+				if (item == CLOSE) {
+					try {
+						writer.close();
+					} catch (final IOException e) {
+						LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+					}
+					return;
+				}
+				try {
+					if (item instanceof CountDownLatch) {
+						writer.flush();
+					} else {
+						writer.write((String) item);
+					}
+				} catch (final IOException e) {
+					LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+				} finally {
+					if (item instanceof CountDownLatch) {
+						((CountDownLatch) item).countDown();
+					}
+				}
+			}
+		} finally {
+			releasePendingFlushes();
+		}
+	}
+}
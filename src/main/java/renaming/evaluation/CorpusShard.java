@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package renaming.evaluation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import codemining.util.SettingsLoader;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+/**
+ * Shard i of k of a corpus. The files are sorted by path and the i-th shard
+ * contains every k-th file, so that all shards together cover the corpus
+ * exactly once, as long as all processes see the corpus under the same path.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class CorpusShard {
+
+	public static final CorpusShard ALL = new CorpusShard(0, 1);
+
+	/**
+	 * Return the shard given by the Evaluation.shard and Evaluation.nShards
+	 * settings, or the whole corpus if they are not set.
+	 *
+	 * @return
+	 */
+	public static CorpusShard fromSettings() {
+		return new CorpusShard((int) SettingsLoader.getNumericSetting(
+				"Evaluation.shard", 0), (int) SettingsLoader.getNumericSetting(
+				"Evaluation.nShards", 1));
+	}
+
+	private final int shard;
+
+	private final int nShards;
+
+	public CorpusShard(final int shard, final int nShards) {
+		checkArgument(nShards > 0, "The number of shards must be positive");
+		checkArgument(shard >= 0 && shard < nShards, "Invalid shard " + shard
+				+ " of " + nShards);
+		this.shard = shard;
+		this.nShards = nShards;
+	}
+
+	/**
+	 * Return the files of the corpus that belong to this shard, in a
+	 * deterministic order.
+	 *
+	 * @param files
+	 * @return
+	 */
+	public List<File> select(final Collection<File> files) {
+		final List<File> sorted = Ordering.natural().sortedCopy(files);
+		if (nShards == 1) {
+			return sorted;
+		}
+		final List<File> selected = Lists.newArrayList();
+		for (int i = shard; i < sorted.size(); i += nShards) {
+			selected.add(sorted.get(i));
+		}
+		return selected;
+	}
+
+	@Override
+	public String toString() {
+		return "shard " + shard + " of " + nShards;
+	}
+}
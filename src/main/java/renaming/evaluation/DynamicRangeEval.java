@@ -14,6 +14,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
@@ -21,6 +22,10 @@ import org.apache.commons.lang.math.RandomUtils;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 
+import renaming.metrics.Histogram;
+import renaming.metrics.Metrics;
+import renaming.ngram.IdentifierNeighborsNGramLM;
+import renaming.ngram.LeaveOneOutNGramCounts;
 import renaming.renamers.BaseIdentifierRenamings;
 import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
 import renaming.segmentranking.SnippetScorer;
@@ -32,18 +37,32 @@ import codemining.java.codeutils.scopes.ScopesTUI;
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.IScopeExtractor;
 import codemining.languagetools.ITokenizer;
+import codemining.languagetools.ITokenizer.FullToken;
 import codemining.languagetools.ParseType;
 import codemining.languagetools.Scope;
 import codemining.lm.ngram.AbstractNGramLM;
+import codemining.lm.ngram.NGram;
 import codemining.lm.ngram.NGramLM;
-import codemining.lm.ngram.smoothing.StupidBackoff;
+import codemining.util.parallel.ParallelThreadPool;
 
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 
 /**
+ * Compare the scores of methods before and after renaming one of their
+ * identifiers to a random name, holding out the method's file from the
+ * n-gram counts.
+ * 
+ * The vocabulary of the models is built once on the whole corpus, so the
+ * tokens that appear only (or mostly) in the held-out file remain known to the
+ * held-out models. Such names are never used as random targets, and their
+ * number per file is recorded in the dynamicRangeEval.heldOutVocabularySize
+ * histogram, but the scores of the original names still see them as known.
+ * 
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  * 
  */
@@ -66,6 +85,28 @@ public class DynamicRangeEval {
 
 	}
 
+	/**
+	 * A method where a random identifier has been renamed.
+	 */
+	private static class PerturbedMethod {
+		final MethodDeclaration method;
+
+		final List<String> renamedVars;
+
+		final String targetName;
+
+		final ASTNode renamedMethodNode;
+
+		PerturbedMethod(final MethodDeclaration method,
+				final List<String> renamedVars, final String targetName,
+				final ASTNode renamedMethodNode) {
+			this.method = method;
+			this.renamedVars = renamedVars;
+			this.targetName = targetName;
+			this.renamedMethodNode = renamedMethodNode;
+		}
+	}
+
 	public static final boolean DEBUG_OUTPUT = false;
 
 	/**
@@ -79,20 +120,30 @@ public class DynamicRangeEval {
 
 	}
 
-	private final List<BeforeAfterScore<Double>> crossEntropyCmp = Lists
-			.newArrayList();
+	private final List<BeforeAfterScore<Double>> crossEntropyCmp = Collections
+			.synchronizedList(Lists.<BeforeAfterScore<Double>> newArrayList());
 
-	private final List<BeforeAfterScore<Double>> scoreBest = Lists
-			.newArrayList();
+	private final List<BeforeAfterScore<Double>> scoreBest = Collections
+			.synchronizedList(Lists.<BeforeAfterScore<Double>> newArrayList());
 
-	private final List<BeforeAfterScore<Double>> score = Lists.newArrayList();
+	private final List<BeforeAfterScore<Double>> score = Collections
+			.synchronizedList(Lists.<BeforeAfterScore<Double>> newArrayList());
 
 	private static final int nMethodsToCheck = 500;
 
+	/**
+	 * The number of tokens of each held-out file that are in the vocabulary,
+	 * but would not be if the models were trained without the file.
+	 */
+	private static final Histogram HELD_OUT_VOCABULARY_SIZE = Metrics
+			.histogram("dynamicRangeEval.heldOutVocabularySize");
+
 	final Collection<File> allFiles;
 
 	final IScopeExtractor scopeExtractor;
 
+	final ITokenizer tokenizer;
+
 	/**
 	 * 
 	 */
@@ -101,41 +152,124 @@ public class DynamicRangeEval {
 		allFiles = FileUtils.listFiles(directory, tokenizer.getFileFilter(),
 				DirectoryFileFilter.DIRECTORY);
 		scopeExtractor = ex;
+		this.tokenizer = tokenizer;
 	}
 
+	/**
+	 * Train both models once on the whole corpus and evaluate the methods of
+	 * each file on models that exclude the n-gram counts of that file. The
+	 * corpus is tokenized once for both models.
+	 */
 	void calculateEverythin() {
-		int methodsChecked = 0;
+		final Map<File, List<FullToken>> corpusTokens = tokenizeCorpus();
+
+		final Multiset<String> tokenCounts = HashMultiset.create();
+		for (final List<FullToken> tokens : corpusTokens.values()) {
+			for (final FullToken token : tokens) {
+				tokenCounts.add(token.token);
+			}
+		}
+		final Set<String> vocabulary = Sets.newHashSet();
+		for (final Multiset.Entry<String> token : tokenCounts.entrySet()) {
+			if (isInVocabulary(token.getCount())) {
+				vocabulary.add(token.getElement());
+			}
+		}
+
+		// Used only for its configured smoother
+		final BaseIdentifierRenamings smoother = new BaseIdentifierRenamings(
+				tokenizer);
+		final IdentifierNeighborsNGramLM identifierLM = new IdentifierNeighborsNGramLM(
+				BaseIdentifierRenamings.NGRAM_SIZE, tokenizer);
+		identifierLM.trainModel(vocabulary, corpusTokens.values());
+		final BaseIdentifierRenamings renamer = new BaseIdentifierRenamings(
+				smoother.smoothModel(identifierLM));
+		final LeaveOneOutNGramCounts identifierCounts = new LeaveOneOutNGramCounts(
+				renamer.getLM());
+
+		// The full token LM is only used for the debug output
+		final NGramLM lm;
+		final Map<File, List<String>> corpusSentences;
+		final LeaveOneOutNGramCounts lmCounts;
+		if (DEBUG_OUTPUT) {
+			lm = new NGramLM(5, tokenizer);
+			lm.getTrie().buildVocabularySymbols(vocabulary);
+			corpusSentences = Maps.newHashMap();
+			for (final Entry<File, List<FullToken>> file : corpusTokens
+					.entrySet()) {
+				final List<String> sentence = Lists.newArrayList();
+				for (final FullToken token : file.getValue()) {
+					sentence.add(token.token);
+				}
+				corpusSentences.put(file.getKey(), sentence);
+			}
+			lm.addSentences(corpusSentences.values(), false);
+			lmCounts = new LeaveOneOutNGramCounts(smoother.smoothModel(lm));
+		} else {
+			lm = null;
+			corpusSentences = null;
+			lmCounts = null;
+		}
+
+		final List<String> allToks = Lists.newArrayList(identifierLM
+				.getTrie().getVocabulary());
+
+		final AtomicInteger methodsChecked = new AtomicInteger(0);
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		for (final File f : allFiles) {
-			try {
-				final Set<File> trainFiles = Sets.newTreeSet();
-				trainFiles.addAll(allFiles);
-				trainFiles.remove(f);
-
-				final BaseIdentifierRenamings renamer = new BaseIdentifierRenamings(
-						new JavaTokenizer());
-				renamer.buildRenamingModel(trainFiles);
-				final NGramLM lm = new NGramLM(5, new JavaTokenizer());
-				lm.trainModel(trainFiles);
-				final List<String> allToks = Lists.newArrayList(renamer.getLM()
-						.getTrie().getVocabulary());
-
-				final AbstractNGramLM smoothedLM = new StupidBackoff(lm);
-
-				final Map<String, MethodDeclaration> fileMethods = MethodRetriever
-						.getMethodNodes(f);
-
-				for (final Entry<String, MethodDeclaration> m : fileMethods
-						.entrySet()) {
-					pushStatsFor(renamer, m.getValue(), smoothedLM, allToks);
-					methodsChecked++;
+			if (!corpusTokens.containsKey(f)) {
+				continue;
+			}
+			threadPool.pushTask(() -> {
+				if (methodsChecked.get() > nMethodsToCheck) {
+					return;
 				}
-				if (methodsChecked > nMethodsToCheck) {
-					break;
+				try {
+					final Collection<MethodDeclaration> methods = MethodRetriever
+							.getMethodNodes(f).values();
+					// As in a sequential run, stop after the file that exceeds
+					// the limit
+					if (methodsChecked.getAndAdd(methods.size()) > nMethodsToCheck) {
+						return;
+					}
+
+					final Set<String> heldOutVocabulary = getHeldOutVocabulary(
+							corpusTokens.get(f), tokenCounts);
+					HELD_OUT_VOCABULARY_SIZE.update(heldOutVocabulary.size());
+					final List<PerturbedMethod> perturbedMethods = Lists
+							.newArrayList();
+					for (final MethodDeclaration method : methods) {
+						perturbedMethods.add(perturb(method, renamer, allToks,
+								heldOutVocabulary));
+					}
+					final List<NGram<String>> identifierNGrams = IdentifierNeighborsNGramLM
+							.getRelevantNGrams(corpusTokens.get(f), tokenizer,
+									identifierLM.getN());
+					if (!DEBUG_OUTPUT) {
+						identifierCounts.callWithout(identifierNGrams,
+								heldOutIdentifierLM -> {
+									pushStatsFor(heldOutIdentifierLM,
+											perturbedMethods, null);
+									return null;
+								});
+						return;
+					}
+					final List<NGram<String>> lmNGrams = LeaveOneOutNGramCounts
+							.getSentenceNGrams(corpusSentences.get(f),
+									lm.getN());
+					identifierCounts.callWithout(identifierNGrams,
+							heldOutIdentifierLM -> lmCounts.callWithout(
+									lmNGrams, heldOutLM -> {
+										pushStatsFor(heldOutIdentifierLM,
+												perturbedMethods, heldOutLM);
+										return null;
+									}));
+				} catch (final Throwable e) {
+					e.printStackTrace();
 				}
-			} catch (final Throwable e) {
-				e.printStackTrace();
-			}
+			});
 		}
+		threadPool.waitForTermination();
 	}
 
 	private void dumpStats() {
@@ -147,11 +281,46 @@ public class DynamicRangeEval {
 		printBeforeAfterList(scoreBest);
 	}
 
+	private static boolean isInVocabulary(final int count) {
+		return count > IdentifierNeighborsNGramLM.CLEAN_VOCABULARY_THRESHOLD;
+	}
+
+	/**
+	 * Return the vocabulary tokens that would not be in the vocabulary of a
+	 * model trained without the file, i.e. whose count falls to the
+	 * threshold when the file is removed.
+	 *
+	 * @param fileTokens
+	 * @param tokenCounts
+	 *            the token counts of the whole corpus
+	 * @return
+	 */
+	private Set<String> getHeldOutVocabulary(final List<FullToken> fileTokens,
+			final Multiset<String> tokenCounts) {
+		final Multiset<String> fileCounts = HashMultiset.create();
+		for (final FullToken token : fileTokens) {
+			fileCounts.add(token.token);
+		}
+		final Set<String> heldOutVocabulary = Sets.newHashSet();
+		for (final Multiset.Entry<String> token : fileCounts.entrySet()) {
+			final int corpusCount = tokenCounts.count(token.getElement());
+			if (isInVocabulary(corpusCount)
+					&& !isInVocabulary(corpusCount - token.getCount())) {
+				heldOutVocabulary.add(token.getElement());
+			}
+		}
+		return heldOutVocabulary;
+	}
+
+	/**
+	 * Return a random identifier of the vocabulary that is not excluded.
+	 */
 	private String getRandomName(final List<String> randomVars,
-			final ITokenizer tokenizer) {
+			final Set<String> excluded, final ITokenizer tokenizer) {
 		String name = randomVars.get(RandomUtils.nextInt(randomVars.size()));
-		while (!tokenizer.getTokenFromString(name).tokenType.equals(tokenizer
-				.getIdentifierType())) {
+		while (excluded.contains(name)
+				|| !tokenizer.getTokenFromString(name).tokenType
+						.equals(tokenizer.getIdentifierType())) {
 			name = randomVars.get(RandomUtils.nextInt(randomVars.size()));
 		}
 		return name;
@@ -240,9 +409,15 @@ public class DynamicRangeEval {
 		System.out.println("n=" + scoreBest.size());
 	}
 
-	private void pushStatsFor(final BaseIdentifierRenamings renamer,
-			final MethodDeclaration method, final AbstractNGramLM lm,
-			final List<String> allToks) throws IOException {
+	/**
+	 * Rename a random identifier of the method to a random name of the
+	 * vocabulary, excluding the names that would not be in the vocabulary
+	 * without the method's file. This does not depend on the counts of the
+	 * models, so it can be done in parallel.
+	 */
+	private PerturbedMethod perturb(final MethodDeclaration method,
+			final BaseIdentifierRenamings renamer, final List<String> allToks,
+			final Set<String> heldOutVocabulary) {
 		final JavaASTExtractor ex = new JavaASTExtractor(false);
 		final Multimap<Scope, String> scopes = scopeExtractor
 				.getFromNode(method);
@@ -253,30 +428,81 @@ public class DynamicRangeEval {
 
 		checkArgument(!renamedVars.isEmpty());
 
-		final SnippetSuggestions ssBefore = SnippetScorer.scoreSnippet(method,
-				renamer, scopeExtractor, false, false);
-
 		final Map<String, String> renamingPlan = Maps.newTreeMap();
-		final String targetName = getRandomName(allToks, renamer.getLM()
-				.getTokenizer());
+		final String targetName = getRandomName(allToks, heldOutVocabulary,
+				renamer.getLM().getTokenizer());
 		renamingPlan.put(renamedVars.get(0), targetName);
 
 		final String renamedMethod = identifierRenamer.getRenamedCode(
 				method.toString(), method.toString(), renamingPlan);
 		final ASTNode renamedMethodNode = ex.getASTNode(renamedMethod,
 				ParseType.METHOD);
+		return new PerturbedMethod(method, renamedVars, targetName,
+				renamedMethodNode);
+	}
+
+	/**
+	 * Push the statistics of the perturbed methods of a file.
+	 *
+	 * @param heldOutIdentifierLM
+	 *            the identifier model, trained without the file
+	 * @param perturbedMethods
+	 * @param heldOutLM
+	 *            the token model, trained without the file. Only used for
+	 *            the debug output, may be null otherwise.
+	 * @throws IOException
+	 */
+	private void pushStatsFor(final AbstractNGramLM heldOutIdentifierLM,
+			final List<PerturbedMethod> perturbedMethods,
+			final AbstractNGramLM heldOutLM) throws IOException {
+		final BaseIdentifierRenamings heldOutRenamer = new BaseIdentifierRenamings(
+				heldOutIdentifierLM);
+		for (final PerturbedMethod method : perturbedMethods) {
+			pushStatsFor(heldOutRenamer, method, heldOutLM);
+		}
+	}
+
+	private void pushStatsFor(final BaseIdentifierRenamings renamer,
+			final PerturbedMethod perturbed, final AbstractNGramLM lm)
+			throws IOException {
+		final SnippetSuggestions ssBefore = SnippetScorer.scoreSnippet(
+				perturbed.method, renamer, scopeExtractor, false, false);
 
 		final SnippetSuggestions ssAfter = SnippetScorer.scoreSnippet(
-				renamedMethodNode, renamer, scopeExtractor, false, false);
+				perturbed.renamedMethodNode, renamer, scopeExtractor, false,
+				false);
 
 		scoreBest.add(new BeforeAfterScore<Double>(-ssBefore.suggestions
 				.first().getConfidence(), -ssAfter.suggestions.first()
 				.getConfidence()));
 
 		if (DEBUG_OUTPUT) {
-			printDebugOutput(method, lm, renamedVars, ssBefore, targetName,
-					renamedMethodNode, ssAfter);
+			printDebugOutput(perturbed.method, lm, perturbed.renamedVars,
+					ssBefore, perturbed.targetName,
+					perturbed.renamedMethodNode, ssAfter);
+		}
+	}
+
+	/**
+	 * Tokenize each file of the corpus once.
+	 * 
+	 * @return the tokens of each file that could be read
+	 */
+	private Map<File, List<FullToken>> tokenizeCorpus() {
+		final Map<File, List<FullToken>> corpusTokens = Maps
+				.newConcurrentMap();
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
+		for (final File f : allFiles) {
+			threadPool.pushTask(() -> {
+				try {
+					corpusTokens.put(f, tokenizer.getTokenListFromCode(f));
+				} catch (final IOException e) {
+					e.printStackTrace();
+				}
+			});
 		}
+		threadPool.waitForTermination();
+		return corpusTokens;
 	}
 
 }
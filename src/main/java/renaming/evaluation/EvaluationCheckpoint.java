@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package renaming.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import codemining.util.SettingsLoader;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+/**
+ * Persist the partial results of a long running evaluation, one per unit of
+ * work (e.g. a file), so that an interrupted run can skip the work already
+ * done. Since the partial results are merged only at the end, checkpoints
+ * from runs on different machines can be combined by loading all of them.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ * @param <T>
+ *            the type of the partial results
+ */
+public class EvaluationCheckpoint<T extends Serializable> {
+
+	/**
+	 * Struct class of a single checkpoint.
+	 *
+	 */
+	private static class Checkpoint<T extends Serializable> implements
+			Serializable {
+		private static final long serialVersionUID = -1766129580211226853L;
+
+		final String key;
+
+		final T partialResult;
+
+		Checkpoint(final String key, final T partialResult) {
+			this.key = key;
+			this.partialResult = partialResult;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(EvaluationCheckpoint.class.getName());
+
+	private static final String EXTENSION = ".ckpt";
+
+	/**
+	 * Return the checkpoint directory of the given evaluator as set by the
+	 * <evaluatorName>.checkpointDir setting, or null if checkpointing is
+	 * disabled.
+	 *
+	 * @param evaluatorName
+	 * @return
+	 */
+	public static <T extends Serializable> EvaluationCheckpoint<T> fromSettings(
+			final String evaluatorName) {
+		final String directory = SettingsLoader.getStringSetting(evaluatorName
+				+ ".checkpointDir", "");
+		if (directory.isEmpty()) {
+			return null;
+		}
+		return new EvaluationCheckpoint<T>(new File(directory));
+	}
+
+	private final File directory;
+
+	public EvaluationCheckpoint(final File directory) {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException(
+					"Cannot create checkpoint directory "
+							+ directory.getAbsolutePath());
+		}
+	}
+
+	private File getCheckpointFile(final String key) {
+		return new File(directory, Hashing.sha1()
+				.hashString(key, Charsets.UTF_8).toString()
+				+ EXTENSION);
+	}
+
+	public boolean isDone(final String key) {
+		return getCheckpointFile(key).exists();
+	}
+
+	/**
+	 * Pass each partial result in the checkpoint directory to the consumer,
+	 * deserializing one at a time, so that only one is held in memory.
+	 * Unreadable checkpoints (e.g. of a different version) are logged and
+	 * ignored, so that their work is redone.
+	 *
+	 * @param consumer
+	 *            receives the key and the partial result of each checkpoint
+	 */
+	public void forEach(final BiConsumer<String, T> consumer) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (final File file : files) {
+			if (!file.getName().endsWith(EXTENSION)) {
+				continue;
+			}
+			final Checkpoint<T> checkpoint;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(
+					file))) {
+				checkpoint = (Checkpoint<T>) SerializationUtils.deserialize(in);
+			} catch (final IOException | SerializationException
+					| ClassCastException e) {
+				LOGGER.warning("Ignoring checkpoint " + file.getAbsolutePath()
+						+ " " + ExceptionUtils.getFullStackTrace(e));
+				file.delete();
+				continue;
+			}
+			consumer.accept(checkpoint.key, checkpoint.partialResult);
+		}
+	}
+
+	/**
+	 * Load all the partial results in the checkpoint directory. Use
+	 * forEach() when the partial results are large.
+	 *
+	 * @return the partial results by key
+	 */
+	public Map<String, T> loadAll() {
+		final Map<String, T> partialResults = Maps.newTreeMap();
+		forEach(partialResults::put);
+		return partialResults;
+	}
+
+	/**
+	 * Persist the partial result of the given unit of work. The checkpoint is
+	 * written to a temporary file and atomically moved, so that a crash never
+	 * leaves a half-written checkpoint behind.
+	 *
+	 * @param key
+	 * @param partialResult
+	 */
+	public void save(final String key, final T partialResult) {
+		final File target = getCheckpointFile(key);
+		final File tmp = new File(directory, target.getName() + ".tmp"
+				+ Thread.currentThread().getId());
+		try {
+			try (OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmp))) {
+				SerializationUtils.serialize(new Checkpoint<T>(key,
+						partialResult), out);
+			}
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException | SerializationException e) {
+			LOGGER.warning("Failed to checkpoint " + key + " "
+					+ ExceptionUtils.getFullStackTrace(e));
+			tmp.delete();
+		}
+	}
+}
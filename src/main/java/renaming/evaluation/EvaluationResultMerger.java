@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package renaming.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.SerializationUtils;
+
+import renaming.evaluation.NamingEvaluator.ResultObject;
+import codemining.languagetools.Scope.ScopeType;
+import codemining.util.SettingsLoader;
+
+/**
+ * Persist the results of an evaluation shard and merge the results of all
+ * shards.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class EvaluationResultMerger {
+
+	private static final Logger LOGGER = Logger
+			.getLogger(EvaluationResultMerger.class.getName());
+
+	/**
+	 * The file where the results of the current shard are written. Empty if
+	 * they should not be written.
+	 */
+	public static final String SHARD_OUTPUT = SettingsLoader.getStringSetting(
+			"Evaluation.shardOutput", "");
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage <shardResults> ...");
+			return;
+		}
+
+		final ResultObject[] merged = ResultObject.newPerScopeResults();
+		for (final String shardFile : args) {
+			ResultObject.accumulateAll(merged, readResults(new File(shardFile)));
+		}
+
+		for (int i = 0; i < merged.length; i++) {
+			System.out.println("==============" + ScopeType.values()[i]
+					+ "===========");
+			merged[i].printStats();
+		}
+	}
+
+	public static ResultObject[] readResults(final File file)
+			throws IOException {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			return (ResultObject[]) SerializationUtils.deserialize(in);
+		}
+	}
+
+	/**
+	 * Write the results to the file set by Evaluation.shardOutput, if any.
+	 *
+	 * @param results
+	 * @throws IOException
+	 */
+	public static void writeShardResults(final ResultObject[] results)
+			throws IOException {
+		if (SHARD_OUTPUT.isEmpty()) {
+			return;
+		}
+		writeResults(results, new File(SHARD_OUTPUT));
+		LOGGER.info("Shard results written to " + SHARD_OUTPUT);
+	}
+
+	public static void writeResults(final ResultObject[] results,
+			final File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				file))) {
+			SerializationUtils.serialize(results, out);
+		}
+	}
+
+	private EvaluationResultMerger() {
+	}
+}
@@ -33,8 +33,10 @@ import codemining.languagetools.Scope;
 import codemining.util.SettingsLoader;
 import codemining.util.parallel.ParallelThreadPool;
 
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 
 /**
@@ -180,14 +182,18 @@ public class JunkIssueEvaluator {
 		final long targetSize = (long) ((1. - percent) * nTotalVars);
 		final long nVarsToRename = junkVariables.size() - targetSize;
 
-		// Rename
+		// Rename, parsing each file once for all its variables
+		final Multiset<File> filesToRename = HashMultiset.create();
 		for (int i = 0; i < nVarsToRename; i++) {
+			filesToRename.add(junkVariables.remove(junkVariables.size() - 1));
+		}
+		for (final Multiset.Entry<File> fileEntry : filesToRename.entrySet()) {
 			try {
-				final File currentFile = junkVariables.remove(junkVariables
-						.size() - 1);
+				final File currentFile = fileEntry.getElement();
 				FileUtils.writeStringToFile(currentFile, jvr
-						.renameSingleVariablesToJunk(FileUtils
-								.readFileToString(currentFile)));
+						.renameVariablesToJunk(
+								FileUtils.readFileToString(currentFile),
+								fileEntry.getCount()));
 			} catch (final Exception e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
@@ -4,8 +4,12 @@
 package renaming.evaluation;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -13,6 +17,17 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.math3.distribution.ZipfDistribution;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.ChildListPropertyDescriptor;
+import org.eclipse.jdt.core.dom.ChildPropertyDescriptor;
+import org.eclipse.jdt.core.dom.Expression;
+import org.eclipse.jdt.core.dom.FieldAccess;
+import org.eclipse.jdt.core.dom.LambdaExpression;
+import org.eclipse.jdt.core.dom.QualifiedName;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.ThisExpression;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
 
 import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.scopes.ScopedIdentifierRenaming;
@@ -21,7 +36,9 @@ import codemining.java.codeutils.scopes.VariableScopeExtractor.Variable;
 import codemining.languagetools.ParseType;
 import codemining.util.SettingsLoader;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
@@ -50,6 +67,112 @@ public class JunkVariableRenamer {
 		System.out.println(jvi.renameAllVarsInFile(percentToRename, inputFile));
 	}
 
+	/**
+	 * Return true if the given name of a variable is declared in the given
+	 * node, i.e. the node shadows any variable of the same name in its
+	 * parents.
+	 */
+	private static boolean declaresVariable(
+			final Multimap<ASTNode, Variable> vars, final ASTNode node,
+			final String name) {
+		for (final Variable variable : vars.get(node)) {
+			if (variable.name.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return true if a name at the given location is an expression.
+	 */
+	private static boolean isExpressionLocation(
+			final StructuralPropertyDescriptor location) {
+		if (location instanceof ChildPropertyDescriptor) {
+			return ((ChildPropertyDescriptor) location).getChildType() == Expression.class
+					|| location == LambdaExpression.BODY_PROPERTY;
+		} else if (location instanceof ChildListPropertyDescriptor) {
+			return ((ChildListPropertyDescriptor) location).getElementType() == Expression.class;
+		}
+		return false;
+	}
+
+	/**
+	 * Return true if the given name may refer to a variable, rather than a
+	 * method, a type, a label, an annotation member or a member of another
+	 * object. Only the names of variable declarations, names used as
+	 * expressions, fields of this and the leftmost qualifier of qualified
+	 * names used as expressions are accepted.
+	 */
+	static boolean isVariableName(final SimpleName name) {
+		final StructuralPropertyDescriptor location = name
+				.getLocationInParent();
+		if (location == VariableDeclarationFragment.NAME_PROPERTY
+				|| location == SingleVariableDeclaration.NAME_PROPERTY) {
+			return true;
+		} else if (location == FieldAccess.NAME_PROPERTY) {
+			return ((FieldAccess) name.getParent()).getExpression() instanceof ThisExpression;
+		} else if (location == QualifiedName.QUALIFIER_PROPERTY) {
+			// In a.b.c only a may be a variable, if a.b.c is an expression
+			ASTNode qualifiedName = name.getParent();
+			while (qualifiedName.getLocationInParent() == QualifiedName.QUALIFIER_PROPERTY) {
+				qualifiedName = qualifiedName.getParent();
+			}
+			return isExpressionLocation(qualifiedName.getLocationInParent());
+		}
+		return isExpressionLocation(location);
+	}
+
+	/**
+	 * Add to the renamings all the occurrences of the variable declared in
+	 * the given scope, excluding the nested scopes that shadow it.
+	 */
+	private static void addOccurrences(final Multimap<ASTNode, Variable> vars,
+			final ASTNode scope, final String name, final String newName,
+			final Map<SimpleName, String> renamings) {
+		scope.accept(new ASTVisitor() {
+			@Override
+			public boolean preVisit2(final ASTNode node) {
+				return node == scope || !declaresVariable(vars, node, name);
+			}
+
+			@Override
+			public boolean visit(final SimpleName node) {
+				if (node.getIdentifier().equals(name) && isVariableName(node)
+						&& !renamings.containsKey(node)) {
+					renamings.put(node, newName);
+				}
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Apply all the renamings to the code they were parsed from, in a single
+	 * pass.
+	 */
+	private static String applyRenamings(final String code,
+			final Map<SimpleName, String> renamings) {
+		final List<SimpleName> names = Lists.newArrayList(renamings.keySet());
+		Collections.sort(names, new Comparator<SimpleName>() {
+			@Override
+			public int compare(final SimpleName o1, final SimpleName o2) {
+				return Integer.compare(o1.getStartPosition(),
+						o2.getStartPosition());
+			}
+		});
+
+		final StringBuilder sb = new StringBuilder(code.length());
+		int lastPosition = 0;
+		for (final SimpleName name : names) {
+			sb.append(code, lastPosition, name.getStartPosition());
+			sb.append(renamings.get(name));
+			lastPosition = name.getStartPosition() + name.getLength();
+		}
+		sb.append(code, lastPosition, code.length());
+		return sb.toString();
+	}
+
 	/**
 	 * @param vars
 	 * @param entry
@@ -98,18 +221,113 @@ public class JunkVariableRenamer {
 	@Deprecated
 	public String renameAllVarsInFile(final double percentToRename,
 			final File inputFile) throws Exception {
-
-		String file = FileUtils.readFileToString(inputFile);
+		final String file = FileUtils.readFileToString(inputFile);
 		final Multimap<ASTNode, Variable> vars = VariableScopeExtractor
-				.getVariableScopes(inputFile);
+				.getVariableScopes(file, ParseType.COMPILATION_UNIT);
 		final int cnt = (int) (vars.size() * percentToRename);
+		return renameVariablesToJunk(file, vars, cnt);
+	}
 
-		for (int i = 0; i < cnt; i++) {
-			file = renameSingleVariablesToJunk(file);
+	/**
+	 * Rename the given number of random variables to junk. This is
+	 * equivalent to calling renameSingleVariablesToJunk nVariables times, but
+	 * the file is parsed once, the junk names of all scopes are computed in a
+	 * single traversal and all renamings are applied in a single pass.
+	 * 
+	 * @param file
+	 * @param nVariables
+	 * @return
+	 * @throws Exception
+	 */
+	public String renameVariablesToJunk(final String file, final int nVariables)
+			throws Exception {
+		final Multimap<ASTNode, Variable> vars = VariableScopeExtractor
+				.getVariableScopes(file, ParseType.COMPILATION_UNIT);
+		return renameVariablesToJunk(file, vars, nVariables);
+	}
+
+	/**
+	 * @param file
+	 * @param vars
+	 *            the variables of the file, as parsed from the file itself
+	 * @param nVariables
+	 * @return
+	 */
+	private String renameVariablesToJunk(final String file,
+			final Multimap<ASTNode, Variable> vars, final int nVariables) {
+		final List<Entry<ASTNode, Variable>> selected = Lists.newArrayList();
+		for (final Entry<ASTNode, Variable> entry : vars.entries()) {
+			if (!entry.getValue().name.matches("^junk[0-9]+$")) {
+				selected.add(entry);
+			}
 		}
 
 		final JavaASTExtractor ex = new JavaASTExtractor(false);
-		return ex.getBestEffortAstNode(file).toString();
+		if (selected.isEmpty() || nVariables <= 0) {
+			return ex.getBestEffortAstNode(file).toString();
+		}
+		Collections.shuffle(selected);
+
+		// In a single traversal, find the junk ids used in each scope and the
+		// scopes nested in each scope
+		final Map<ASTNode, Set<Integer>> scopeUsedIds = Maps.newHashMap();
+		final Multimap<ASTNode, ASTNode> nestedScopes = ArrayListMultimap
+				.create();
+		final Deque<ASTNode> enclosingScopes = new ArrayDeque<ASTNode>();
+		selected.get(0).getKey().getRoot().accept(new ASTVisitor() {
+			@Override
+			public void postVisit(final ASTNode node) {
+				if (enclosingScopes.peek() == node) {
+					enclosingScopes.pop();
+				}
+			}
+
+			@Override
+			public void preVisit(final ASTNode node) {
+				if (!vars.containsKey(node)) {
+					return;
+				}
+				scopeUsedIds.put(node,
+						getUsedIds(Sets.newHashSet(vars.get(node))));
+				for (final ASTNode enclosingScope : enclosingScopes) {
+					nestedScopes.put(enclosingScope, node);
+				}
+				enclosingScopes.push(node);
+			}
+		});
+
+		final ZipfDistribution z = new ZipfDistribution(ZIPFS_ELEMENTS,
+				ZIPFS_SLOPE);
+		final Map<SimpleName, String> renamings = Maps.newHashMap();
+		for (final Entry<ASTNode, Variable> entry : selected.subList(0,
+				Math.min(nVariables, selected.size()))) {
+			final ASTNode scope = entry.getKey();
+			// The ids used by the parents, self and children, including the
+			// ones assigned so far
+			final Set<Integer> usedIds = Sets.newHashSet();
+			for (ASTNode node = scope; node != null; node = node.getParent()) {
+				final Set<Integer> ids = scopeUsedIds.get(node);
+				if (ids != null) {
+					usedIds.addAll(ids);
+				}
+			}
+			for (final ASTNode nestedScope : nestedScopes.get(scope)) {
+				usedIds.addAll(scopeUsedIds.get(nestedScope));
+			}
+
+			// Find an unused name, at random.
+			int unusedName = z.sample();
+			while (usedIds.contains(unusedName)) {
+				unusedName = z.sample();
+			}
+			scopeUsedIds.get(scope).add(unusedName);
+			addOccurrences(vars, scope, entry.getValue().name, "junk"
+					+ unusedName, renamings);
+		}
+
+		// Format code naively
+		return ex.getBestEffortAstNode(applyRenamings(file, renamings))
+				.toString();
 	}
 
 	/**
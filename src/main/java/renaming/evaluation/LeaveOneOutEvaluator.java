@@ -6,8 +6,11 @@ package renaming.evaluation;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
@@ -101,9 +104,17 @@ public class LeaveOneOutEvaluator {
 				final Collection<File> trainFiles = Sets.newTreeSet(allFiles);
 				checkArgument(trainFiles.removeAll(testFiles));
 
+				final ResultObject[] fileData = ResultObject
+						.newPerScopeResults();
 				final NamingEvaluator ve = new NamingEvaluator(trainFiles,
-						data, renamer);
-				ve.performEvaluation(testFiles, scopeExtractor);
+						fileData, renamer);
+				// The per-file statistics are not printed, the Printer
+				// prints the cumulative ones
+				ve.performEvaluation(testFiles, scopeExtractor, false);
+				if (checkpoint != null) {
+					checkpoint.save(testedFile.getAbsolutePath(), fileData);
+				}
+				ResultObject.accumulateAll(data, fileData);
 			} catch (Exception e) {
 				LOGGER.warning("Error in file " + testedFile.getAbsolutePath()
 						+ " " + ExceptionUtils.getFullStackTrace(e));
@@ -135,10 +146,11 @@ public class LeaveOneOutEvaluator {
 	 * @throws IllegalAccessException
 	 * @throws InstantiationException
 	 * @throws ClassNotFoundException
+	 * @throws IOException
 	 */
 	public static void main(String[] args) throws InstantiationException,
 			IllegalAccessException, ClassNotFoundException,
-			SerializationException {
+			SerializationException, IOException {
 		if (args.length < 5) {
 			System.err
 					.println("Usage <folder> <tokenizerClass> <wrapperClass> variable|method <renamingClass> [<renamerConstrParams> ..]");
@@ -160,8 +172,20 @@ public class LeaveOneOutEvaluator {
 		final IScopeExtractor scopeExtractor = ScopesTUI
 				.getScopeExtractorByName(args[3]);
 
+		// The shard must be set before resuming, since only its files are
+		// merged from the checkpoint
+		eval.shard = CorpusShard.fromSettings();
+		LOGGER.info("Evaluating " + eval.shard);
+
+		final EvaluationCheckpoint<ResultObject[]> checkpoint = EvaluationCheckpoint
+				.fromSettings("LeaveOneOutEvaluator");
+		if (checkpoint != null) {
+			eval.resumeFrom(checkpoint);
+		}
 		eval.performEvaluation(scopeExtractor, args[4],
 				args.length == 6 ? args[5] : null);
+		EvaluationResultMerger.writeShardResults(eval.data);
+		NamingEvaluator.logSlowQueries();
 	}
 
 	final Collection<File> allFiles;
@@ -170,6 +194,17 @@ public class LeaveOneOutEvaluator {
 
 	final ITokenizer tokenizer;
 
+	/**
+	 * Where the results of each file are persisted. May be null.
+	 */
+	private EvaluationCheckpoint<ResultObject[]> checkpoint = null;
+
+	/**
+	 * The files that are tested by this process. All files are still used for
+	 * training.
+	 */
+	CorpusShard shard = CorpusShard.ALL;
+
 	public LeaveOneOutEvaluator(final File directory,
 			final ITokenizer tokenizer,
 			final Class<? extends AbstractNGramLM> smoother) {
@@ -185,7 +220,10 @@ public class LeaveOneOutEvaluator {
 			final String renamerClass, final String additionalParams) {
 		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		int fileNo = 0;
-		for (final File fi : allFiles) {
+		for (final File fi : shard.select(allFiles)) {
+			if (checkpoint != null && checkpoint.isDone(fi.getAbsolutePath())) {
+				continue;
+			}
 			threadPool.pushTask(new ModelEvaluator(fi, scopeExtractor,
 					renamerClass, additionalParams));
 			fileNo++;
@@ -194,6 +232,34 @@ public class LeaveOneOutEvaluator {
 			}
 		}
 		threadPool.waitForTermination();
+		(new Printer()).run();
+	}
+
+	/**
+	 * Merge the results already in the checkpoint and persist the results of
+	 * each file evaluated from now on, skipping the files already evaluated.
+	 * Only the checkpointed files of this shard are merged, since the
+	 * checkpoint may be shared with other shards. The shard must be set
+	 * before calling this.
+	 *
+	 * @param checkpoint
+	 */
+	public void resumeFrom(final EvaluationCheckpoint<ResultObject[]> checkpoint) {
+		final Set<String> shardFiles = Sets.newHashSet();
+		for (final File file : shard.select(allFiles)) {
+			shardFiles.add(file.getAbsolutePath());
+		}
+		// Merge the checkpoints one at a time, rather than loading them all
+		final AtomicInteger nResumed = new AtomicInteger(0);
+		checkpoint.forEach((key, fileData) -> {
+			if (shardFiles.contains(key)) {
+				ResultObject.accumulateAll(data, fileData);
+				nResumed.incrementAndGet();
+			}
+		});
+		LOGGER.info("Resuming from " + nResumed + " evaluated files of "
+				+ shard);
+		this.checkpoint = checkpoint;
 	}
 
 }
@@ -4,21 +4,22 @@
 package renaming.evaluation;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map.Entry;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.lang.exception.ExceptionUtils;
-import org.apache.commons.lang.math.RandomUtils;
 
+import renaming.metrics.IdentifierQueryStats;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.renamers.INGramIdentifierRenamer.Renaming;
 import codemining.java.codeutils.scopes.ScopesTUI;
@@ -80,27 +81,144 @@ public class NamingEvaluator {
 
 	}
 
-	public static class ResultObject {
+	/**
+	 * The accumulated results. Can be updated concurrently without locking.
+	 * The cumulative statistics are computed only when read.
+	 *
+	 */
+	public static class ResultObject implements Serializable {
+		private static final long serialVersionUID = 6470412263271795106L;
+
 		static double[] THRESHOLD_VALUES = { .5, 1, 1.5, 2, 2.5, 3, 3.5, 4, 5,
 				6, 7, 8, 10, 12, 15, 20, 50, 100, Double.MAX_VALUE };
 		static int MAX_RANK = 20;
-		final long[][] recallAtRank = new long[THRESHOLD_VALUES.length][MAX_RANK];
-		long count = 0;
-		final long[] nGaveSuggestions = new long[THRESHOLD_VALUES.length];
-		final double[] reciprocalSum = new double[THRESHOLD_VALUES.length];
 
-		public synchronized void accumulate(final ResultObject ro) {
-			this.count += ro.count;
+		/**
+		 * hitsAtRank[t][r] counts the identifiers whose actual name was first
+		 * suggested at threshold t at rank r+1. The last column counts all
+		 * ranks after MAX_RANK.
+		 */
+		final LongAdder[][] hitsAtRank = new LongAdder[THRESHOLD_VALUES.length][MAX_RANK + 1];
+
+		final LongAdder count = new LongAdder();
+
+		/**
+		 * The sum of the reciprocal ranks of the identifiers first suggested
+		 * at each threshold.
+		 */
+		final DoubleAdder[] reciprocalAtThreshold = new DoubleAdder[THRESHOLD_VALUES.length];
+
+		/**
+		 * Add the results of each scope type of from to the respective
+		 * results of into.
+		 *
+		 * @param into
+		 * @param from
+		 */
+		public static void accumulateAll(final ResultObject[] into,
+				final ResultObject[] from) {
+			for (int i = 0; i < into.length; i++) {
+				into[i].accumulate(from[i]);
+			}
+		}
+
+		/**
+		 * @return an empty result object for each scope type
+		 */
+		public static ResultObject[] newPerScopeResults() {
+			final ResultObject[] results = new ResultObject[ScopeType.values().length];
+			for (int i = 0; i < results.length; i++) {
+				results[i] = new ResultObject();
+			}
+			return results;
+		}
+
+		public ResultObject() {
+			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
+				reciprocalAtThreshold[i] = new DoubleAdder();
+				for (int j = 0; j < hitsAtRank[i].length; j++) {
+					hitsAtRank[i][j] = new LongAdder();
+				}
+			}
+		}
+
+		public void accumulate(final ResultObject ro) {
+			count.add(ro.count.sum());
+			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
+				reciprocalAtThreshold[i].add(ro.reciprocalAtThreshold[i].sum());
+				for (int j = 0; j < hitsAtRank[i].length; j++) {
+					final long hits = ro.hitsAtRank[i][j].sum();
+					if (hits > 0) {
+						hitsAtRank[i][j].add(hits);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Record an identifier whose actual name was suggested at the given
+		 * rank (starting from 1) for all thresholds from tLimitIndex onwards.
+		 *
+		 * @param tLimitIndex
+		 * @param rank
+		 */
+		void addSuggestion(final int tLimitIndex, final int rank) {
+			hitsAtRank[tLimitIndex][Math.min(rank, MAX_RANK + 1) - 1]
+					.increment();
+			reciprocalAtThreshold[tLimitIndex].add(1. / rank);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return the number of identifiers for which a suggestion was given at
+		 *         each threshold
+		 */
+		public long[] getNGaveSuggestions() {
+			final long[] nGaveSuggestions = new long[THRESHOLD_VALUES.length];
+			long total = 0;
 			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
-				this.nGaveSuggestions[i] += ro.nGaveSuggestions[i];
-				this.reciprocalSum[i] += ro.reciprocalSum[i];
-				for (int j = 0; j < this.recallAtRank[i].length; j++) {
-					this.recallAtRank[i][j] += ro.recallAtRank[i][j];
+				for (int j = 0; j < hitsAtRank[i].length; j++) {
+					total += hitsAtRank[i][j].sum();
 				}
+				nGaveSuggestions[i] = total;
 			}
+			return nGaveSuggestions;
+		}
+
+		/**
+		 * @return the number of identifiers whose actual name was within the
+		 *         top j+1 suggestions, at each threshold i
+		 */
+		public long[][] getRecallAtRank() {
+			final long[][] recallAtRank = new long[THRESHOLD_VALUES.length][MAX_RANK];
+			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
+				long total = 0;
+				for (int j = 0; j < MAX_RANK; j++) {
+					total += hitsAtRank[i][j].sum();
+					recallAtRank[i][j] = total
+							+ (i > 0 ? recallAtRank[i - 1][j] : 0);
+				}
+			}
+			return recallAtRank;
+		}
+
+		public double[] getReciprocalSum() {
+			final double[] reciprocalSum = new double[THRESHOLD_VALUES.length];
+			double total = 0;
+			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
+				total += reciprocalAtThreshold[i].sum();
+				reciprocalSum[i] = total;
+			}
+			return reciprocalSum;
 		}
 
 		public void printStats() {
+			final long count = getCount();
+			final long[][] recallAtRank = getRecallAtRank();
+			final long[] nGaveSuggestions = getNGaveSuggestions();
 			System.out.println("t=" + Arrays.toString(THRESHOLD_VALUES));
 			System.out.println("count=" + count);
 			System.out.print("recallAtRank=[");
@@ -111,7 +229,7 @@ public class NamingEvaluator {
 			System.out.println("nGaveSuggestions="
 					+ Arrays.toString(nGaveSuggestions));
 			System.out.println("reciprocalSum="
-					+ Arrays.toString(reciprocalSum));
+					+ Arrays.toString(getReciprocalSum()));
 
 			final double[][] pRecallAtRank = new double[THRESHOLD_VALUES.length][MAX_RANK];
 			for (int i = 0; i < THRESHOLD_VALUES.length; i++) {
@@ -146,53 +264,71 @@ public class NamingEvaluator {
 	private static final boolean PER_FILE_STATS = SettingsLoader
 			.getBooleanSetting("OutputFileStats", false);
 
-	private static FileOutputStream debugFile;
-	private static FileOutputStream fileStatsOutput;
+	private static final IdentifierQueryStats QUERY_STATS = new IdentifierQueryStats(
+			"NamingEvaluator.identifier");
+
+	private static AsyncFileWriter debugFile;
+	private static AsyncFileWriter fileStatsOutput;
 
 	static {
 		if (DEBUG_RENAMINGS) {
 			try {
-				debugFile = new FileOutputStream(new File(
+				debugFile = new AsyncFileWriter(new File(
 						SettingsLoader.getStringSetting("debug_file",
 								"renamings.debug")));
-			} catch (final FileNotFoundException e) {
+				Runtime.getRuntime().addShutdownHook(
+						new Thread(debugFile::close));
+			} catch (final IOException e) {
 				LOGGER.warning("Error creating debug output file: " + e);
 			}
 		}
 
 		if (PER_FILE_STATS) {
 			try {
-				fileStatsOutput = new FileOutputStream(new File(
+				fileStatsOutput = new AsyncFileWriter(new File(
 						SettingsLoader.getStringSetting("OutputFileStats_file",
 								"renamingsFileStats.out")));
-			} catch (final FileNotFoundException e) {
+				Runtime.getRuntime().addShutdownHook(
+						new Thread(fileStatsOutput::close));
+			} catch (final IOException e) {
 				LOGGER.warning("Error creating debug output file: " + e);
 			}
 		}
 	}
 
-	private synchronized static void appendToDebugFile(final StringBuffer buf) {
-		try {
-			debugFile.write(buf.toString().getBytes());
-			if (RandomUtils.nextDouble() < 0.01) {
-				debugFile.flush();
-			}
-		} catch (final IOException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+	private static void appendToDebugFile(final StringBuffer buf) {
+		if (debugFile != null) {
+			debugFile.append(buf);
 		}
 	}
 
-	private synchronized static void appendToStatsFile(final StringBuffer buf) {
-		try {
-			fileStatsOutput.write(buf.toString().getBytes());
-			if (RandomUtils.nextDouble() < 0.01) {
-				fileStatsOutput.flush();
-			}
-		} catch (final IOException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+	private static void appendToStatsFile(final StringBuffer buf) {
+		if (fileStatsOutput != null) {
+			fileStatsOutput.append(buf);
 		}
 	}
 
+	/**
+	 * Block until the debug and statistics output written so far has reached
+	 * the disk.
+	 */
+	public static void flushOutput() {
+		if (debugFile != null) {
+			debugFile.flush();
+		}
+		if (fileStatsOutput != null) {
+			fileStatsOutput.flush();
+		}
+	}
+
+	/**
+	 * Log the slowest identifier queries of all the evaluations so far. This
+	 * is meant to be called once, at the end of a run.
+	 */
+	public static void logSlowQueries() {
+		QUERY_STATS.getSlowQueries().log(LOGGER);
+	}
+
 	/**
 	 * @param args
 	 * @throws IOException
@@ -244,10 +380,13 @@ public class NamingEvaluator {
 		final IScopeExtractor scopeExtractor = ScopesTUI
 				.getScopeExtractorByName(args[2]);
 
-		ve.performEvaluation(
-				FileUtils.listFiles(directory, langModel.getTokenizer()
-						.getFileFilter(), DirectoryFileFilter.DIRECTORY),
-				scopeExtractor);
+		final CorpusShard shard = CorpusShard.fromSettings();
+		LOGGER.info("Evaluating " + shard);
+		ve.performEvaluation(shard.select(FileUtils.listFiles(directory,
+				langModel.getTokenizer().getFileFilter(),
+				DirectoryFileFilter.DIRECTORY)), scopeExtractor);
+		EvaluationResultMerger.writeShardResults(data);
+		logSlowQueries();
 
 	}
 
@@ -274,24 +413,15 @@ public class NamingEvaluator {
 
 	final void evaluateRenamings(final Multimap<Scope, String> m,
 			final File file) {
-		final ResultObject[] fileResults = new ResultObject[ScopeType.values().length];
-		for (int i = 0; i < fileResults.length; i++) {
-			fileResults[i] = new ResultObject();
-		}
-
 		for (final Entry<Scope, String> variable : m.entries()) {
 			try {
-				evaluateSingleRenaming(fileResults, variable);
+				evaluateSingleRenaming(data, variable);
 			} catch (final Throwable e) {
 				LOGGER.warning("Failed to evaluate renaming " + variable + " "
 						+ ExceptionUtils.getFullStackTrace(e));
 			}
 		}
 
-		for (int i = 0; i < fileResults.length; i++) {
-			data[i].accumulate(fileResults[i]);
-		}
-
 		if (PER_FILE_STATS) {
 			final StringBuffer buf = new StringBuffer();
 			buf.append(file.getAbsolutePath());
@@ -300,13 +430,13 @@ public class NamingEvaluator {
 			long allSum = 0;
 
 			for (int i = 0; i < ScopeType.values().length; i++) {
-				final long[] tpScope = data[i].recallAtRank[i];
+				final long[] tpScope = data[i].getRecallAtRank()[i];
 				tp0 += tpScope[0];
 
-				final long allScope = data[i].count;
+				final long allScope = data[i].getCount();
 				allSum += allScope;
 
-				buf.append(data[i].nGaveSuggestions[0]);
+				buf.append(data[i].getNGaveSuggestions()[0]);
 				buf.append("\t");
 			}
 
@@ -322,8 +452,12 @@ public class NamingEvaluator {
 	 */
 	public void evaluateSingleRenaming(final ResultObject[] results,
 			final Entry<Scope, String> identifier) {
+		final long start = System.nanoTime();
 		final SortedSet<Renaming> renamings = renamer.getRenamings(
 				identifier.getKey(), identifier.getValue());
+		QUERY_STATS.record(System.nanoTime() - start, identifier.getValue(),
+				identifier.getKey(), renamings.size(),
+				renamings.first().nContexts);
 
 		if (DEBUG_RENAMINGS) {
 			outputResult(identifier, renamings);
@@ -337,7 +471,7 @@ public class NamingEvaluator {
 				break;
 			}
 		}
-		results[scopeIndex].count++;
+		results[scopeIndex].count.increment();
 
 		if (renamings.first().name.equals("UNK_SYMBOL")) {
 			return;
@@ -365,12 +499,8 @@ public class NamingEvaluator {
 			}
 		}
 
-		for (int i = tLimitIndex; i < ResultObject.THRESHOLD_VALUES.length; i++) {
-			for (int j = pos; j < ResultObject.MAX_RANK + 1; j++) {
-				results[scopeIndex].recallAtRank[i][j - 1]++;
-			}
-			results[scopeIndex].reciprocalSum[i] += 1. / pos;
-			results[scopeIndex].nGaveSuggestions[i]++;
+		if (tLimitIndex < ResultObject.THRESHOLD_VALUES.length) {
+			results[scopeIndex].addSuggestion(tLimitIndex, pos);
 		}
 	}
 
@@ -405,16 +535,32 @@ public class NamingEvaluator {
 
 	public void performEvaluation(final Collection<File> files,
 			final IScopeExtractor scopeExtractor) {
+		performEvaluation(files, scopeExtractor, true);
+	}
+
+	/**
+	 * @param files
+	 * @param scopeExtractor
+	 * @param printStats
+	 *            print the statistics every 50 files and at the end. Callers
+	 *            that evaluate a part of a larger run (e.g. one held-out file)
+	 *            should print their own cumulative statistics instead.
+	 */
+	public void performEvaluation(final Collection<File> files,
+			final IScopeExtractor scopeExtractor, final boolean printStats) {
 		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		int fileNo = 0;
 		for (final File fi : files) {
 			threadPool.pushTask(new RenamingEvaluator(fi, scopeExtractor));
 			fileNo++;
-			if (fileNo % 50 == 0) {
+			if (printStats && fileNo % 50 == 0) {
 				threadPool.pushTask(new Printer());
 			}
 		}
 		threadPool.waitForTermination();
-		(new Printer()).run();
+		if (printStats) {
+			(new Printer()).run();
+		}
+		flushOutput();
 	}
 }
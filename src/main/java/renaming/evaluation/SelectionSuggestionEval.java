@@ -7,6 +7,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
@@ -51,7 +53,9 @@ import com.google.common.collect.Sets;
  */
 public class SelectionSuggestionEval {
 
-	public static class EvaluationResults {
+	public static class EvaluationResults implements Serializable {
+		private static final long serialVersionUID = 2349574211394327711L;
+
 		// The various thresholds to use for the Charles measure when rejecting
 		public static final double[] THRESHOLDS = { .1, .5, 1, 1.5, 2, 2.5, 3,
 				5, 7, 9, 11, 13, 15, 16, 17, 18, 19, 20, 21, 22, 23, 25, 27,
@@ -65,6 +69,15 @@ public class SelectionSuggestionEval {
 
 		private long nSnippetsConsidered = 0;
 
+		public synchronized void merge(final EvaluationResults other) {
+			nSnippetsConsidered += other.nSnippetsConsidered;
+			for (int i = 0; i < nReject.length; i++) {
+				for (int j = 0; j < nReject[i].length; j++) {
+					nReject[i][j] += other.nReject[i][j];
+				}
+			}
+		}
+
 		public void printResults() {
 			System.out.println("t=" + Arrays.toString(THRESHOLDS));
 			System.out
@@ -107,15 +120,35 @@ public class SelectionSuggestionEval {
 				new File(args[0]), new JavaTokenizer(),
 				ScopesTUI.getScopeExtractorByName(args[1]));
 
-		final int nExperiments = Integer.parseInt(args[2]);
+		final EvaluationCheckpoint<EvaluationResults> checkpoint = EvaluationCheckpoint
+				.fromSettings("SelectionSuggestionEval");
+		int nResumed = 0;
+		if (checkpoint != null) {
+			final Map<String, EvaluationResults> done = checkpoint.loadAll();
+			for (final EvaluationResults experimentResults : done.values()) {
+				sse.results.merge(experimentResults);
+			}
+			nResumed = done.size();
+			LOGGER.info("Resuming from " + nResumed + " experiments");
+		}
+
+		// Experiments are random, so their keys only need to be unique across
+		// runs (and machines) that share a checkpoint directory.
+		final String runId = UUID.randomUUID().toString();
+		final int nExperiments = Integer.parseInt(args[2]) - nResumed;
 		final ParallelThreadPool pt = new ParallelThreadPool();
 		for (int i = 0; i < nExperiments; i++) {
+			final String experimentKey = runId + "/experiment" + i;
 			pt.pushTask(new Runnable() {
 
 				@Override
 				public void run() {
 					try {
-						sse.runSingleExperiment();
+						final EvaluationResults experimentResults = sse
+								.runSingleExperiment();
+						if (checkpoint != null) {
+							checkpoint.save(experimentKey, experimentResults);
+						}
 					} catch (IOException e) {
 						LOGGER.warning("Failed to run single experiment "
 								+ ExceptionUtils.getFullStackTrace(e));
@@ -203,7 +236,8 @@ public class SelectionSuggestionEval {
 
 	private void evaluatePerformanceOn(final MethodDeclaration currentMethod,
 			final AbstractIdentifierRenamings renamer,
-			final List<String> randomVars) throws IOException {
+			final List<String> randomVars,
+			final EvaluationResults experimentResults) throws IOException {
 		final JavaASTExtractor ex = new JavaASTExtractor(false);
 		final ScopedIdentifierRenaming identifierRenamer = new ScopedIdentifierRenaming(
 				scopeExtractor, ParseType.METHOD);
@@ -242,7 +276,7 @@ public class SelectionSuggestionEval {
 
 			scoreAtPerturbationLevel[i] = ss.score / ss.suggestions.size();
 		}
-		results.pushResult(scoreAtPerturbationLevel);
+		experimentResults.pushResult(scoreAtPerturbationLevel);
 	}
 
 	/**
@@ -279,7 +313,14 @@ public class SelectionSuggestionEval {
 		return name;
 	}
 
-	public void runSingleExperiment() throws IOException {
+	/**
+	 * Run a single experiment, adding its results to the overall results.
+	 *
+	 * @return the results of this experiment only
+	 * @throws IOException
+	 */
+	public EvaluationResults runSingleExperiment() throws IOException {
+		final EvaluationResults experimentResults = new EvaluationResults();
 		final BaseIdentifierRenamings renamer = new BaseIdentifierRenamings(
 				tokenizer);
 		final List<File> selectedFiles = buildRenamerAndGetTargetMethods(renamer);
@@ -290,13 +331,16 @@ public class SelectionSuggestionEval {
 			try {
 				for (final Entry<String, MethodDeclaration> method : MethodRetriever
 						.getMethodNodes(f).entrySet()) {
-					evaluatePerformanceOn(method.getValue(), renamer, allToks);
+					evaluatePerformanceOn(method.getValue(), renamer, allToks,
+							experimentResults);
 				}
 			} catch (Throwable e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
 
 		}
+		results.merge(experimentResults);
+		return experimentResults;
 
 	}
 }
@@ -24,6 +24,7 @@ import org.apache.commons.lang.math.RandomUtils;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
 
 import renaming.formatting.FormattingRenamings;
+import renaming.formatting.LeaveOneOutFormattingRenamings;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.renamers.BaseIdentifierRenamings;
 import renaming.renamers.INGramIdentifierRenamer.Renaming;
@@ -73,6 +74,23 @@ public class StylishEval {
 		}
 	}
 
+	/**
+	 * A parsed method and the identifier that will be renamed in it.
+	 *
+	 */
+	private static class SelectedMethod {
+		final MethodDeclaration method;
+		final String fileText;
+		final String toRename;
+
+		SelectedMethod(final MethodDeclaration method, final String fileText,
+				final String toRename) {
+			this.method = method;
+			this.fileText = fileText;
+			this.toRename = toRename;
+		}
+	}
+
 	/**
 	 * @param args
 	 */
@@ -85,6 +103,7 @@ public class StylishEval {
 		final StylishEval sse = new StylishEval(new File(args[0]),
 				new JavaTokenizer(),
 				ScopesTUI.getScopeExtractorByName("variable"));
+		sse.buildFormattingModel();
 
 		final int nExperiments = N_SNIPPETS;
 		final ParallelThreadPool threadPool = new ParallelThreadPool();
@@ -119,6 +138,12 @@ public class StylishEval {
 
 	final IScopeExtractor scopeExtractor;
 
+	/**
+	 * The formatting model trained on all files. The test files of each
+	 * experiment are excluded from it at query time.
+	 */
+	final LeaveOneOutFormattingRenamings formattingRenamer = new LeaveOneOutFormattingRenamings();
+
 	private static final Logger LOGGER = Logger
 			.getLogger(SelectionSuggestionEval.class.getName());
 
@@ -136,6 +161,14 @@ public class StylishEval {
 		scopeExtractor = extractor;
 	}
 
+	/**
+	 * Build the formatting model on all the files. This needs to be called
+	 * once, before running any experiments.
+	 */
+	public void buildFormattingModel() {
+		formattingRenamer.buildModel(allFiles);
+	}
+
 	/**
 	 * Pick the files where we will evaluate on and build the identifier
 	 * renamer.
@@ -144,8 +177,7 @@ public class StylishEval {
 	 * @return
 	 */
 	public List<File> buildRenamersAndGetTargetMethods(
-			final BaseIdentifierRenamings renamer,
-			final FormattingRenamings formattingRenamer) {
+			final BaseIdentifierRenamings renamer) {
 		final List<File> testFiles = Lists.newArrayList();
 
 		final List<File> allFilesList = Lists.newArrayList(allFiles);
@@ -175,7 +207,6 @@ public class StylishEval {
 		checkArgument(trainingFiles.removeAll(testFiles));
 
 		renamer.buildRenamingModel(trainingFiles);
-		formattingRenamer.buildModel(trainingFiles);
 		return testFiles;
 	}
 
@@ -275,35 +306,72 @@ public class StylishEval {
 	public void runSingleExperiment() throws IOException {
 		final BaseIdentifierRenamings idRenamer = new BaseIdentifierRenamings(
 				tokenizer);
-		final FormattingRenamings formattingRenaming = new FormattingRenamings();
-		final List<File> selectedFiles = buildRenamersAndGetTargetMethods(
-				idRenamer, formattingRenaming);
+		final List<File> selectedFiles = buildRenamersAndGetTargetMethods(idRenamer);
+
+		// Parse the selected files before acquiring a held-out model
+		final List<SelectedMethod> selectedMethods = selectMethods(selectedFiles);
+		try {
+			formattingRenamer.callWithout(selectedFiles, heldOutRenamer -> {
+				evaluateSelectedMethods(selectedMethods, idRenamer,
+						heldOutRenamer);
+				return null;
+			});
+		} catch (final Exception e) {
+			throw new IOException(e);
+		}
+	}
 
-		final List<String> allToks = Lists.newArrayList(idRenamer.getLM()
-				.getTrie().getVocabulary());
-		Collections.shuffle(allToks);
+	/**
+	 * Evaluate the selected methods on a formatting model that excludes
+	 * their files.
+	 *
+	 * @param selectedMethods
+	 * @param idRenamer
+	 * @param heldOutRenamer
+	 */
+	private void evaluateSelectedMethods(
+			final List<SelectedMethod> selectedMethods,
+			final BaseIdentifierRenamings idRenamer,
+			final FormattingRenamings heldOutRenamer) {
+		for (final SelectedMethod method : selectedMethods) {
+			try {
+				evaluatePerformanceOn(method.method, method.fileText,
+						idRenamer, heldOutRenamer, method.toRename);
+			} catch (Throwable e) {
+				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Pick a random identifier to rename in each method of the selected
+	 * files.
+	 *
+	 * @param selectedFiles
+	 * @return
+	 */
+	private List<SelectedMethod> selectMethods(final List<File> selectedFiles) {
+		final List<SelectedMethod> selectedMethods = Lists.newArrayList();
 		for (final File f : selectedFiles) {
 			try {
+				final String fileText = FileUtils.readFileToString(f);
 				for (final Entry<String, MethodDeclaration> method : MethodRetriever
 						.getMethodNodes(f).entrySet()) {
 					final Collection<String> snippetIdentifiers = scopeExtractor
 							.getFromNode(method.getValue()).values();
-					final String toRename;
-					if (!snippetIdentifiers.isEmpty()) {
-						toRename = (String) snippetIdentifiers.toArray()[RandomUtils
-								.nextInt(snippetIdentifiers.size())];
-					} else {
+					if (snippetIdentifiers.isEmpty()) {
 						continue;
 					}
-					evaluatePerformanceOn(method.getValue(),
-							FileUtils.readFileToString(f), idRenamer,
-							formattingRenaming, toRename);
+					final String toRename = (String) snippetIdentifiers
+							.toArray()[RandomUtils.nextInt(snippetIdentifiers
+							.size())];
+					selectedMethods.add(new SelectedMethod(method.getValue(),
+							fileText, toRename));
 				}
 			} catch (Throwable e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
-
 		}
-
+		return selectedMethods;
 	}
 }
@@ -6,9 +6,8 @@ package renaming.formatting;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Collection;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
@@ -47,15 +46,16 @@ public class FormattingEvaluation {
 		@Override
 		public void run() {
 			try {
-				final Collection<File> trainFiles = new TreeSet<File>();
-				trainFiles.addAll(allFiles);
-				checkArgument(trainFiles.remove(testedFile));
-
-				FormattingRenamings fr = new FormattingRenamings();
-				fr.buildModel(trainFiles);
-				FormattingRenamingsEval eval = new FormattingRenamingsEval(fr);
-				results.accumulate(eval.evaluateFormattingAccuracy(testedFile));
-			} catch (IOException e) {
+				checkArgument(allFiles.contains(testedFile));
+				// Tokenize once, outside the held-out model
+				final List<String> tokens = renamer.tokenizeCode(FileUtils
+						.readFileToString(testedFile).toCharArray());
+				results.accumulate(renamer.callWithoutNGrams(
+						renamer.getTokenNGrams(tokens),
+						heldOutRenamer -> new FormattingRenamingsEval(
+								heldOutRenamer)
+								.evaluateFormattingAccuracy(tokens)));
+			} catch (Exception e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
 		}
@@ -85,6 +85,12 @@ public class FormattingEvaluation {
 
 	final Collection<File> allFiles;
 
+	/**
+	 * The formatting model, trained once on all files. Each tested file is
+	 * excluded from it at query time.
+	 */
+	final LeaveOneOutFormattingRenamings renamer = new LeaveOneOutFormattingRenamings();
+
 	/**
 	 * 
 	 */
@@ -93,6 +99,7 @@ public class FormattingEvaluation {
 	}
 
 	public void performEvaluation() {
+		renamer.buildModel(allFiles);
 		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		int fileNo = 0;
 		for (final File fi : allFiles) {
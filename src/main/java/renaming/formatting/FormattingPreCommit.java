@@ -4,7 +4,6 @@
 package renaming.formatting;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -36,7 +35,7 @@ public class FormattingPreCommit {
 	public class RejectEvaluator implements Runnable {
 		private final File testFile;
 
-		final FormattingRenamings fr = new FormattingRenamings();
+		final LeaveOneOutFormattingRenamings fr = formattingRenamer;
 
 		final List<String> allWhitespaceChars = Lists.newArrayList();
 
@@ -44,20 +43,32 @@ public class FormattingPreCommit {
 			this.testFile = testFile;
 		}
 
-		public void evaluate() throws IOException {
-			final Collection<File> trainSet = Sets.newTreeSet(allFiles);
-			trainSet.remove(testFile);
-			fr.buildModel(trainSet);
+		public void evaluate() throws Exception {
+			final List<String> tokens = fr.tokenizeCode(FileUtils
+					.readFileToString(testFile).toCharArray());
+			fr.callWithoutNGrams(fr.getTokenNGrams(tokens), heldOutRenamer -> {
+				evaluateOnHeldOutModel(heldOutRenamer, tokens);
+				return null;
+			});
+		}
 
-			for (final String token : fr.getNgramLM().getTrie().getVocabulary()) {
+		/**
+		 * Evaluate the test file on a renamer that excludes it.
+		 *
+		 * @param heldOutRenamer
+		 * @param tokens
+		 *            the tokens of the test file
+		 */
+		private void evaluateOnHeldOutModel(
+				final FormattingRenamings heldOutRenamer,
+				final List<String> tokens) {
+			for (final String token : heldOutRenamer.getNgramLM().getTrie()
+					.getVocabulary()) {
 				if (token.startsWith("WS_")) {
 					allWhitespaceChars.add(token);
 				}
 			}
 
-			final List<String> tokens = fr.tokenizeCode(FileUtils
-					.readFileToString(testFile).toCharArray());
-
 			final List<Integer> wsIndex = getWSIndex(tokens);
 			Collections.shuffle(wsIndex);
 
@@ -66,17 +77,19 @@ public class FormattingPreCommit {
 			double topPerturbedScore = 0;
 			double topNormalScore = 0;
 			for (final int pos : wsIndex) {
-				final SortedSet<Renaming> normalRenaming = fr.calculateScores(
-						fr.getNGramsAround(pos, tokens),
-						Sets.newTreeSet(allWhitespaceChars), null);
+				final SortedSet<Renaming> normalRenaming = heldOutRenamer
+						.calculateScores(
+								heldOutRenamer.getNGramsAround(pos, tokens),
+								Sets.newTreeSet(allWhitespaceChars), null);
 				final double normalScore = SnippetScorer.getScore(
 						normalRenaming, tokens.get(pos), false);
 				if (normalScore > topNormalScore) {
 					topNormalScore = normalScore;
 				}
 
-				final SortedSet<Renaming> perturbedRenaming = fr
-						.calculateScores(fr.getNGramsAround(pos, perturbed),
+				final SortedSet<Renaming> perturbedRenaming = heldOutRenamer
+						.calculateScores(
+								heldOutRenamer.getNGramsAround(pos, perturbed),
 								Sets.newTreeSet(allWhitespaceChars), null);
 				final double perturbedScore = SnippetScorer.getScore(
 						perturbedRenaming, perturbed.get(pos), false);
@@ -139,7 +152,7 @@ public class FormattingPreCommit {
 		public void run() {
 			try {
 				evaluate();
-			} catch (IOException e) {
+			} catch (Exception e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
 		}
@@ -198,6 +211,12 @@ public class FormattingPreCommit {
 
 	final Collection<File> allFiles;
 
+	/**
+	 * The formatting model, trained once on all files and shared by all the
+	 * evaluators.
+	 */
+	final LeaveOneOutFormattingRenamings formattingRenamer = new LeaveOneOutFormattingRenamings();
+
 	public static final Logger LOGGER = Logger
 			.getLogger(FormattingPreCommit.class.getName());
 
@@ -211,6 +230,7 @@ public class FormattingPreCommit {
 	}
 
 	public void runEval() {
+		formattingRenamer.buildModel(allFiles);
 		final int nFileSamples = (int) Math.ceil(allFiles.size() * .5);
 		final List<File> files = Lists.newArrayList(allFiles);
 		Collections.shuffle(files);
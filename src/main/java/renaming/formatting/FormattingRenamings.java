@@ -13,6 +13,8 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import renaming.renamers.INGramIdentifierRenamer;
 import codemining.java.tokenizers.JavaWidthAnnotatedWhitespaceTokenizer;
 import codemining.languagetools.FormattingTokenizer;
@@ -41,6 +43,12 @@ public class FormattingRenamings implements INGramIdentifierRenamer {
 	private static final Logger LOGGER = Logger
 			.getLogger(FormattingRenamings.class.getName());
 
+	private static final Timer TOKENIZATION_TIMER = Metrics
+			.timer("tokenization");
+
+	private static final Timer SMOOTHING_TIMER = Metrics
+			.timer("training.smoothingConstruction");
+
 	/**
 	 * The formatting (whitespace) tokenizer.
 	 */
@@ -83,11 +91,13 @@ public class FormattingRenamings implements INGramIdentifierRenamer {
 			final AbstractNGramLM dict = new NGramLM(NGRAM_SIZE, tokenizer);
 			dict.trainModel(trainingFiles);
 
+			final Timer.Context smoothingTime = SMOOTHING_TIMER.time();
 			final AbstractNGramLM ng = (AbstractNGramLM) checkNotNull(
 					smoothedNgramClass,
 					"no smoother class. Was the n-gram model pre-build?")
 					.getDeclaredConstructor(AbstractNGramLM.class).newInstance(
 							dict);
+			smoothingTime.stop();
 			ngramLM = ng;
 		} catch (final IOException e) {
 			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
@@ -176,7 +186,9 @@ public class FormattingRenamings implements INGramIdentifierRenamer {
 	 * @return
 	 */
 	public List<String> tokenizeCode(final char[] code) {
+		final Timer.Context tokenizationTime = TOKENIZATION_TIMER.time();
 		final List<String> tokens = tokenizer.tokenListFromCode(code);
+		tokenizationTime.stop();
 		return tokens;
 	}
 }
@@ -111,8 +111,18 @@ public class FormattingRenamingsEval {
 			final File testFile) throws IOException {
 		final char[] fileContent = FileUtils.readFileToString(testFile)
 				.toCharArray();
-		final List<String> tokens = renamer.tokenizeCode(fileContent);
+		return evaluateFormattingAccuracy(renamer.tokenizeCode(fileContent));
+	}
 
+	/**
+	 * Evaluate the formatting accuracy on an already tokenized file.
+	 *
+	 * @param tokens
+	 *            the formatting tokens of the file
+	 * @return
+	 */
+	public FormattingRenamingsEval.WhitespacePrecisionRecall evaluateFormattingAccuracy(
+			final List<String> tokens) {
 		final FormattingRenamingsEval.WhitespacePrecisionRecall result = new FormattingRenamingsEval.WhitespacePrecisionRecall();
 
 		for (int i = 0; i < tokens.size(); i++) {
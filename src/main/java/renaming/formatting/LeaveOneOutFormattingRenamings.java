@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package renaming.formatting;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import renaming.ngram.LeaveOneOutNGramCounts;
+import renaming.ngram.LeaveOneOutNGramCounts.HeldOutTask;
+import codemining.languagetools.IFormattingTokenizer;
+import codemining.lm.ngram.NGram;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A formatting renamer that is trained once on the whole corpus and can
+ * evaluate any file of the corpus as if it was not part of the training set,
+ * by subtracting the file's n-gram counts from a replica of the model at
+ * query time.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class LeaveOneOutFormattingRenamings extends FormattingRenamings {
+
+	private LeaveOneOutNGramCounts leaveOneOutCounts;
+
+	public LeaveOneOutFormattingRenamings() {
+		super();
+	}
+
+	public LeaveOneOutFormattingRenamings(final IFormattingTokenizer tokenizer) {
+		super(tokenizer);
+	}
+
+	/**
+	 * Build the model on the whole corpus. Files of the corpus can later be
+	 * excluded using callWithout().
+	 */
+	@Override
+	public void buildModel(final Collection<File> trainingFiles) {
+		super.buildModel(trainingFiles);
+		leaveOneOutCounts = new LeaveOneOutNGramCounts(getNgramLM());
+	}
+
+	/**
+	 * Run the task on a renamer whose model does not contain the n-grams of
+	 * the given files. Up to LeaveOneOutNGramCounts.maxReplicas tasks run
+	 * concurrently, each on its own held-out model.
+	 *
+	 * @param excludedFiles
+	 *            files that were part of the training corpus
+	 * @param task
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> T callWithout(final Collection<File> excludedFiles,
+			final HeldOutTask<FormattingRenamings, T> task) throws Exception {
+		final List<NGram<String>> excludedNGrams = Lists.newArrayList();
+		for (final File file : excludedFiles) {
+			excludedNGrams.addAll(getFileNGrams(file));
+		}
+		return callWithoutNGrams(excludedNGrams, task);
+	}
+
+	/**
+	 * Run the task on a renamer whose model does not contain the given
+	 * n-grams, as returned by getTokenNGrams(). This allows the caller to
+	 * tokenize the held-out files only once.
+	 *
+	 * @param excludedNGrams
+	 * @param task
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> T callWithoutNGrams(
+			final Collection<NGram<String>> excludedNGrams,
+			final HeldOutTask<FormattingRenamings, T> task) throws Exception {
+		return checkNotNull(leaveOneOutCounts, "The model has not been built")
+				.callWithout(excludedNGrams, heldOutModel -> task
+						.call(new FormattingRenamings(heldOutModel, tokenizer)));
+	}
+
+	/**
+	 * Return the n-grams that the file contributed to the model.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public List<NGram<String>> getFileNGrams(final File file)
+			throws IOException {
+		return getTokenNGrams(tokenizeCode(FileUtils.readFileToString(file)
+				.toCharArray()));
+	}
+
+	/**
+	 * Return the n-grams that a file with the given (formatting) tokens
+	 * contributed to the model.
+	 *
+	 * @param tokens
+	 * @return
+	 */
+	public List<NGram<String>> getTokenNGrams(final List<String> tokens) {
+		return LeaveOneOutNGramCounts.getSentenceNGrams(tokens, getNgramLM()
+				.getN());
+	}
+
+}
@@ -9,25 +9,28 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.util.data.Pair;
+import codemining.util.parallel.ParallelThreadPool;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
@@ -46,16 +49,62 @@ import committools.data.RepositoryFileWalker;
 public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 		implements IEditListCallback {
 
+	/**
+	 * The new identifiers that may continue a chain, indexed by their
+	 * declaration line.
+	 *
+	 */
+	static final class CandidateIdentifiers {
+		private final Set<IdentifierInformation> identifiers = Sets
+				.newHashSet();
+
+		private final NavigableMap<Integer, List<IdentifierInformation>> identifiersByLine = Maps
+				.newTreeMap();
+
+		void add(final IdentifierInformation idInfo) {
+			if (identifiers.add(idInfo)) {
+				identifiersByLine.computeIfAbsent(idInfo.declarationLineNumber,
+						l -> Lists.newArrayList()).add(idInfo);
+			}
+		}
+
+		/**
+		 * Return the candidates declared within the given (closed) range of
+		 * lines.
+		 *
+		 * @param lines
+		 * @return
+		 */
+		List<IdentifierInformation> declaredIn(final Range<Integer> lines) {
+			final List<IdentifierInformation> declared = Lists.newArrayList();
+			for (final List<IdentifierInformation> lineIdentifiers : identifiersByLine
+					.subMap(lines.lowerEndpoint(), true,
+							lines.upperEndpoint(), true).values()) {
+				declared.addAll(lineIdentifiers);
+			}
+			return declared;
+		}
+
+		boolean isEmpty() {
+			return identifiers.isEmpty();
+		}
+
+		IdentifierInformation first() {
+			return identifiers.iterator().next();
+		}
+
+		int size() {
+			return identifiers.size();
+		}
+	}
+
+
 	public class IdentifierInformationThroughTime {
 		private final List<IdentifierInformation> identifierThroughTime = Lists
 				.newArrayList();
 
 		private boolean identifierDeleted = false;
 
-		public IdentifierInformationThroughTime() {
-			allIdentifierChains.add(this);
-		}
-
 		public final void addInformation(final IdentifierInformation idInfo) {
 			checkArgument(!identifierDeleted);
 			if (!identifierThroughTime.isEmpty()
@@ -80,6 +129,40 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 		}
 	}
 
+	/**
+	 * The key of the identifiers that areTypeEqual().
+	 *
+	 */
+	private static final class TypeKey {
+		final int typeId;
+
+		final IdentifierInformation.AstPath declaringAstParent;
+
+		TypeKey(final IdentifierInformation idInfo) {
+			typeId = idInfo.typeId;
+			declaringAstParent = idInfo.declaringAstParent;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TypeKey)) {
+				return false;
+			}
+			// Ancestor paths are interned
+			final TypeKey other = (TypeKey) obj;
+			return typeId == other.typeId
+					&& declaringAstParent == other.declaringAstParent;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * typeId + declaringAstParent.hashCode();
+		}
+	}
+
 	/**
 	 * @param args
 	 * @throws IOException
@@ -93,6 +176,7 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 		final ChangingIdentifiersRepositoryWalker cirw = new ChangingIdentifiersRepositoryWalker(
 				args[0], AbstractCommitWalker.BASE_WALK);
 		cirw.doWalk();
+		cirw.scanCache.save();
 		// printVersions(cirw);
 	}
 
@@ -128,7 +212,16 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 
 	private final EditListRetriever editListRetriever;
 
-	private final IdentifierInformationScanner infoScanner = new IdentifierInformationScanner();
+	private final GitObjectDatabaseReader objectDatabaseReader;
+
+	/**
+	 * The declarations of the blobs scanned so far, shared by all scanners.
+	 */
+	private final IdentifierScanCache scanCache = IdentifierScanCache
+			.fromSettings();
+
+	private final IdentifierInformationScanner infoScanner = new IdentifierInformationScanner(
+			scanCache);
 
 	/**
 	 * @param repositoryDirectory
@@ -141,99 +234,146 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 		super(repositoryDirectory, walkingStrategy);
 		editListRetriever = new EditListRetriever(repository,
 				JavaTokenizer.javaCodeFileFilter);
+		objectDatabaseReader = new GitObjectDatabaseReader(
+				repository.getRepository());
 	}
 
-	private void doFirstScan(final File repositoryDir, final String sha) {
-		for (final File f : FileUtils
-				.listFiles(repositoryDir, JavaTokenizer.javaCodeFileFilter,
-						DirectoryFileFilter.DIRECTORY)) {
-			final String fileInRepo = f.getAbsolutePath().substring(
-					(int) (repositoryDir.getAbsolutePath().length() + 1));
-			Set<IdentifierInformation> identiferInfos;
-			try {
-				identiferInfos = infoScanner.scanFile(f, sha);
-				identiferInfos
-						.forEach(info -> {
-							final IdentifierInformationThroughTime iitt = new IdentifierInformationThroughTime();
-							iitt.addInformation(info);
-							currentStateOfIdentifiers.put(fileInRepo, iitt);
-						});
-			} catch (final IOException e) {
-				LOGGER.severe("Could not find file " + f + "\n"
-						+ ExceptionUtils.getFullStackTrace(e));
-			}
+	/**
+	 * Scan all the files of the checked out first commit. Files are parsed
+	 * in parallel and the chains of each file are merged into the state once
+	 * the file has been scanned. The cache keys are the blob ids of the
+	 * commit's tree, so cached files are not read at all.
+	 *
+	 * @param repositoryDir
+	 * @param commit
+	 * @throws IOException
+	 */
+	private void doFirstScan(final File repositoryDir, final RevCommit commit)
+			throws IOException {
+		final String sha = commit.getName();
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
+		for (final Entry<String, ObjectId> blob : objectDatabaseReader
+				.getJavaFileBlobIds(commit).entrySet()) {
+			final String fileInRepo = blob.getKey();
+			final File f = new File(repositoryDir, fileInRepo);
+			threadPool.pushTask(() -> {
+				try {
+					// The AST parser is not shared across threads
+					final Set<IdentifierInformation> identiferInfos = new IdentifierInformationScanner(
+							scanCache).scanFile(f, sha, blob.getValue());
+					addFirstScanChains(fileInRepo, identiferInfos);
+				} catch (final IOException e) {
+					LOGGER.severe("Could not find file " + f + "\n"
+							+ ExceptionUtils.getFullStackTrace(e));
+				}
+			});
+		}
+		threadPool.waitForTermination();
+	}
 
+	/**
+	 * Scan all the files of the first commit, reading them from the object
+	 * database.
+	 *
+	 * @param commit
+	 * @throws IOException
+	 */
+	private void doFirstScan(final RevCommit commit) throws IOException {
+		final String sha = commit.getName();
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
+		for (final Entry<String, ObjectId> blob : objectDatabaseReader
+				.getJavaFileBlobIds(commit).entrySet()) {
+			final String fileInRepo = blob.getKey();
+			threadPool.pushTask(() -> {
+				try {
+					final Set<IdentifierInformation> identiferInfos = new IdentifierInformationScanner(
+							scanCache).scanBlob(objectDatabaseReader,
+							blob.getValue(), new File(repositoryDir,
+									fileInRepo).getAbsolutePath(), sha);
+					addFirstScanChains(fileInRepo, identiferInfos);
+				} catch (final IOException e) {
+					LOGGER.severe("Could not read " + fileInRepo + "\n"
+							+ ExceptionUtils.getFullStackTrace(e));
+				}
+			});
 		}
+		threadPool.waitForTermination();
 	}
 
 	/**
-	 * Return a range of the possible line positions of the old line number in
-	 * the new file.
+	 * Start a chain for each of the identifiers of a file of the first
+	 * commit. This may be called concurrently.
 	 *
-	 * @param declarationLineNumber
-	 * @param editList
-	 * @return
+	 * @param fileInRepo
+	 * @param identiferInfos
 	 */
-	private Range<Integer> getNewLineGivenOld(final int oldLineNumber,
-			final EditList editList) {
-		int offsetAbove = 0;
-		for (final Edit edit : editList) {
-			if (edit.getBeginA() < oldLineNumber
-					&& edit.getEndA() < oldLineNumber) {
-				offsetAbove += -(edit.getEndA() - edit.getBeginA())
-						+ (edit.getEndB() - edit.getBeginB());
-			} else if (edit.getBeginA() <= oldLineNumber
-					&& edit.getEndA() >= oldLineNumber) {
-				// if it was in the old range, it is now in the new range
-				checkArgument(
-						edit.getBeginA() + offsetAbove == edit.getBeginB(),
-						"Beggining was %s but expected %s", edit.getBeginB(),
-						edit.getBeginA() + offsetAbove);
-				return Range.closed(edit.getBeginB(), edit.getEndB());
-			} else {
-				return Range.closed(oldLineNumber + offsetAbove, oldLineNumber
-						+ offsetAbove);
-			}
+	private void addFirstScanChains(final String fileInRepo,
+			final Set<IdentifierInformation> identiferInfos) {
+		final List<IdentifierInformationThroughTime> fileChains = Lists
+				.newArrayList();
+		identiferInfos.forEach(info -> {
+			final IdentifierInformationThroughTime iitt = new IdentifierInformationThroughTime();
+			iitt.addInformation(info);
+			fileChains.add(iitt);
+		});
+		synchronized (currentStateOfIdentifiers) {
+			currentStateOfIdentifiers.putAll(fileInRepo, fileChains);
+			allIdentifierChains.addAll(fileChains);
 		}
-		return Range.closed(oldLineNumber + offsetAbove, oldLineNumber
-				+ offsetAbove);
+	}
+
+	/**
+	 * Create a new chain starting from the given identifier and register it.
+	 *
+	 * @param info
+	 * @return
+	 */
+	private IdentifierInformationThroughTime newIdentifierChain(
+			final IdentifierInformation info) {
+		final IdentifierInformationThroughTime iitt = new IdentifierInformationThroughTime();
+		iitt.addInformation(info);
+		allIdentifierChains.add(iitt);
+		return iitt;
 	}
 
 	/**
 	 * Return the equivalence classes of the variables. This is essentially, a
-	 * list of variables that could be identical.
+	 * list of variables that could be identical. The chains and the new
+	 * identifiers are joined on their type and declaring AST parents, so that
+	 * this is linear in the number of identifiers.
 	 *
 	 * @param state
 	 * @param newIdentifierInfo
 	 * @return
 	 */
-	Collection<Pair<IdentifierInformationThroughTime, Set<IdentifierInformation>>> matchByType(
+	Collection<Pair<IdentifierInformationThroughTime, CandidateIdentifiers>> matchByType(
 			final Collection<IdentifierInformationThroughTime> state,
 			final Set<IdentifierInformation> newIdentifierInfo) {
-		final List<Pair<IdentifierInformationThroughTime, Set<IdentifierInformation>>> equivalenceClasses = Lists
+		final List<Pair<IdentifierInformationThroughTime, CandidateIdentifiers>> equivalenceClasses = Lists
 				.newArrayList();
+		// All the live chains of the same type share their candidates
+		final Map<TypeKey, CandidateIdentifiers> candidatesByType = Maps
+				.newHashMap();
 		for (final IdentifierInformationThroughTime iitt : state) {
 			if (!iitt.isDeleted()) {
-				equivalenceClasses.add(Pair.create(iitt, Sets.newHashSet()));
+				final CandidateIdentifiers candidates = candidatesByType
+						.computeIfAbsent(new TypeKey(iitt.getLast()),
+								k -> new CandidateIdentifiers());
+				equivalenceClasses.add(Pair.create(iitt, candidates));
 			}
 		}
 
 		for (final IdentifierInformation newIdentifierInformation : newIdentifierInfo) {
 			// First try to match to an existing set
-			boolean atLeastOneMatchFound = false;
-			for (final Pair<IdentifierInformationThroughTime, Set<IdentifierInformation>> idPair : equivalenceClasses) {
-				if (idPair.first == null) {
-					continue;
-				} else if (idPair.first.getLast().areTypeEqual(
-						newIdentifierInformation)) {
-					atLeastOneMatchFound = true;
-					idPair.second.add(newIdentifierInformation);
-				}
-			}
-			// If we fail, add
-			if (!atLeastOneMatchFound) {
-				equivalenceClasses.add(Pair.create(null,
-						Sets.newHashSet(newIdentifierInformation)));
+			final CandidateIdentifiers candidates = candidatesByType
+					.get(new TypeKey(newIdentifierInformation));
+			if (candidates != null) {
+				candidates.add(newIdentifierInformation);
+			} else {
+				// If we fail, add
+				final CandidateIdentifiers newCandidates = new CandidateIdentifiers();
+				newCandidates.add(newIdentifierInformation);
+				equivalenceClasses.add(Pair.create(null, newCandidates));
 			}
 		}
 		return equivalenceClasses;
@@ -243,7 +383,7 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 	 * Get the actual match
 	 *
 	 * @param state
-	 * @param editList
+	 * @param lineMapping
 	 * @param unmatchedNewIdentifiers
 	 * @param unmatchedIitts
 	 * @param possibleMatchedIds
@@ -251,20 +391,21 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 	 */
 	private void matchIittToIdentifier(
 			final Collection<IdentifierInformationThroughTime> state,
-			final EditList editList,
+			final EditListLineMapping lineMapping,
 			final Set<IdentifierInformation> unmatchedNewIdentifiers,
 			final Set<IdentifierInformationThroughTime> unmatchedIitts,
-			final Set<IdentifierInformation> possibleMatchedIds,
+			final CandidateIdentifiers possibleMatchedIds,
 			final IdentifierInformationThroughTime iitt) {
-		final Range<Integer> newLineNumber = getNewLineGivenOld(
-				iitt.getLast().declarationLineNumber, editList);
+		final Range<Integer> newLineNumber = lineMapping
+				.getNewLineGivenOld(iitt.getLast().declarationLineNumber);
 		final Set<IdentifierInformation> availableMatches = Sets
 				.newIdentityHashSet();
-		for (final IdentifierInformation idInfo : possibleMatchedIds) {
-			if (newLineNumber.contains(idInfo.declarationLineNumber)
-					&& unmatchedNewIdentifiers.contains(idInfo)
-					&& !rangeTooBroad(newLineNumber)) {
-				availableMatches.add(idInfo);
+		if (!rangeTooBroad(newLineNumber)) {
+			for (final IdentifierInformation idInfo : possibleMatchedIds
+					.declaredIn(newLineNumber)) {
+				if (unmatchedNewIdentifiers.contains(idInfo)) {
+					availableMatches.add(idInfo);
+				}
 			}
 		}
 		if (!availableMatches.isEmpty()) {
@@ -328,10 +469,12 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 			final Set<IdentifierInformation> newIdentifierInfo,
 			final EditList editList, final String currentFilePath) {
 		// Match pairs of compatible variables
-		final Collection<Pair<IdentifierInformationThroughTime, Set<IdentifierInformation>>> matchedPairs = matchByType(
+		final Collection<Pair<IdentifierInformationThroughTime, CandidateIdentifiers>> matchedPairs = matchByType(
 				state, newIdentifierInfo);
 
 		// Do matching
+		final EditListLineMapping lineMapping = new EditListLineMapping(
+				editList);
 		final Set<IdentifierInformation> unmatchedNewIdentifiers = Sets
 				.newIdentityHashSet();
 		unmatchedNewIdentifiers.addAll(newIdentifierInfo);
@@ -340,9 +483,9 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 				.newIdentityHashSet();
 		unmatchedIitts.addAll(state);
 
-		for (final Pair<IdentifierInformationThroughTime, Set<IdentifierInformation>> matchedIds : matchedPairs) {
+		for (final Pair<IdentifierInformationThroughTime, CandidateIdentifiers> matchedIds : matchedPairs) {
 			// match variables with only one candidate
-			final Set<IdentifierInformation> possibleMatchedIds = matchedIds.second;
+			final CandidateIdentifiers possibleMatchedIds = matchedIds.second;
 			final IdentifierInformationThroughTime iitt = matchedIds.first;
 			checkArgument(iitt == null ? true : !iitt.isDeleted());
 			if (possibleMatchedIds.isEmpty()) {
@@ -352,24 +495,20 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 			} else if (iitt == null) {
 				// This is a new identifier
 				checkArgument(possibleMatchedIds.size() == 1);
-				final IdentifierInformationThroughTime newIitt = new IdentifierInformationThroughTime();
 				final IdentifierInformation variableToAdd = possibleMatchedIds
-						.iterator().next();
-				newIitt.addInformation(variableToAdd);
+						.first();
 				unmatchedNewIdentifiers.remove(variableToAdd);
-				state.add(newIitt);
+				state.add(newIdentifierChain(variableToAdd));
 			} else {
 				checkArgument(possibleMatchedIds.size() >= 1, "Size was %s",
 						possibleMatchedIds.size());
-				matchIittToIdentifier(state, editList, unmatchedNewIdentifiers,
+				matchIittToIdentifier(state, lineMapping, unmatchedNewIdentifiers,
 						unmatchedIitts, possibleMatchedIds, iitt);
 			}
 		}
 		for (final IdentifierInformation ii : unmatchedNewIdentifiers) {
 			// We failed to match these, create new ids...
-			final IdentifierInformationThroughTime newIitt = new IdentifierInformationThroughTime();
-			newIitt.addInformation(ii);
-			state.add(newIitt);
+			state.add(newIdentifierChain(ii));
 		}
 
 		for (final IdentifierInformationThroughTime iitt : unmatchedIitts) {
@@ -379,6 +518,19 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 		}
 	}
 
+	/**
+	 * When reading from the object database, there is no need to check out
+	 * the commit.
+	 */
+	@Override
+	public void visitCommit(final RevCommit commit) {
+		if (GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+			visitCommitFiles(commit);
+		} else {
+			super.visitCommit(commit);
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -394,7 +546,11 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 				editListRetriever.retrieveEditListBetweenAndCallback(commit,
 						commit.getParent(0), this);
 			} else {
-				doFirstScan(repositoryDir, commit.getName());
+				if (GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+					doFirstScan(commit);
+				} else {
+					doFirstScan(repositoryDir, commit);
+				}
 			}
 		} catch (LargeObjectException | GitAPIException | IOException e) {
 			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
@@ -419,8 +575,14 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 				.getWorkTree() + "/";
 
 		final File targetFile = new File(repositoryFolder + entry.getNewPath());
-		final Set<IdentifierInformation> newIdentifierInfo = infoScanner
-				.scanFile(targetFile, commit.name());
+		final ObjectId blobId = entry.getNewId().toObjectId();
+		final Set<IdentifierInformation> newIdentifierInfo;
+		if (GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+			newIdentifierInfo = infoScanner.scanBlob(objectDatabaseReader,
+					blobId, targetFile.getAbsolutePath(), sha);
+		} else {
+			newIdentifierInfo = infoScanner.scanFile(targetFile, sha, blobId);
+		}
 		if (currentStateOfIdentifiers.containsKey(entry.getOldPath())) {
 			final Collection<IdentifierInformationThroughTime> state = currentStateOfIdentifiers
 					.get(entry.getOldPath());
@@ -444,12 +606,8 @@ public class ChangingIdentifiersRepositoryWalker extends RepositoryFileWalker
 			// checkArgument(entry.getOldPath().equals("/dev/null"));
 			final List<IdentifierInformationThroughTime> infosThroughTime = Lists
 					.newArrayList();
-			newIdentifierInfo
-					.forEach(info -> {
-						final IdentifierInformationThroughTime inf = new IdentifierInformationThroughTime();
-						inf.addInformation(info);
-						infosThroughTime.add(inf);
-					});
+			newIdentifierInfo.forEach(info -> infosThroughTime
+					.add(newIdentifierChain(info)));
 			currentStateOfIdentifiers.putAll(entry.getNewPath(),
 					infosThroughTime);
 		}
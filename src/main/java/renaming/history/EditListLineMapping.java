@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package renaming.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+
+import com.google.common.collect.Range;
+
+/**
+ * Map the line numbers of the old version of a file to the line numbers of
+ * the new version, given the edits between the two. The edits are flattened
+ * once into sorted arrays with the prefix sums of their line offsets, so that
+ * each lookup is a binary search over the edits.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class EditListLineMapping {
+
+	private final int[] beginA;
+
+	private final int[] endA;
+
+	private final int[] beginB;
+
+	private final int[] endB;
+
+	/**
+	 * The offset of the lines before each edit, i.e. offsetAbove[i] is the
+	 * number of lines added minus the number of lines removed by the edits
+	 * 0..i-1. The last element is the total offset.
+	 */
+	private final int[] offsetAbove;
+
+	/**
+	 * @param editList
+	 *            the (sorted, non-overlapping) edits between the two versions
+	 */
+	public EditListLineMapping(final EditList editList) {
+		final int nEdits = editList.size();
+		beginA = new int[nEdits];
+		endA = new int[nEdits];
+		beginB = new int[nEdits];
+		endB = new int[nEdits];
+		offsetAbove = new int[nEdits + 1];
+		int i = 0;
+		for (final Edit edit : editList) {
+			beginA[i] = edit.getBeginA();
+			endA[i] = edit.getEndA();
+			beginB[i] = edit.getBeginB();
+			endB[i] = edit.getEndB();
+			offsetAbove[i + 1] = offsetAbove[i]
+					- (edit.getEndA() - edit.getBeginA())
+					+ (edit.getEndB() - edit.getBeginB());
+			i++;
+		}
+	}
+
+	/**
+	 * Return a range of the possible line positions of the old line number in
+	 * the new file.
+	 *
+	 * @param oldLineNumber
+	 * @return
+	 */
+	public Range<Integer> getNewLineGivenOld(final int oldLineNumber) {
+		// The first edit that does not end before the line. All edits before
+		// it only shift the line.
+		final int editIdx = firstEditEndingAtOrAfter(oldLineNumber);
+		final int offset = offsetAbove[editIdx];
+		if (editIdx < beginA.length && beginA[editIdx] <= oldLineNumber) {
+			// if it was in the old range, it is now in the new range
+			checkArgument(beginA[editIdx] + offset == beginB[editIdx],
+					"Beggining was %s but expected %s", beginB[editIdx],
+					beginA[editIdx] + offset);
+			return Range.closed(beginB[editIdx], endB[editIdx]);
+		}
+		return Range.closed(oldLineNumber + offset, oldLineNumber + offset);
+	}
+
+	/**
+	 * Return the index of the first edit whose old range ends at or after the
+	 * given line, or the number of edits if there is no such edit.
+	 *
+	 * @param line
+	 * @return
+	 */
+	private int firstEditEndingAtOrAfter(final int line) {
+		int idx = Arrays.binarySearch(endA, line);
+		if (idx < 0) {
+			return -idx - 1;
+		}
+		// Empty edits may share their end, find the first one
+		while (idx > 0 && endA[idx - 1] == line) {
+			idx--;
+		}
+		return idx;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package renaming.history;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import codemining.util.SettingsLoader;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Read the files of a commit directly from the git object database, instead
+ * of checking out the commit and reading the working tree. Only the blobs
+ * that are actually needed are read, into memory. All methods are
+ * thread-safe.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class GitObjectDatabaseReader {
+
+	/**
+	 * If true, the history walkers do not check out each commit, but read the
+	 * files they need from the object database.
+	 */
+	public static final boolean READ_FROM_OBJECT_DATABASE = SettingsLoader
+			.getBooleanSetting("History.readFromObjectDatabase", false);
+
+	private final Repository repository;
+
+	public GitObjectDatabaseReader(final Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * Return the id of the blob at the given path of the commit, or null if
+	 * there is no such file.
+	 *
+	 * @param commit
+	 * @param path
+	 *            the path relative to the root of the repository
+	 * @return
+	 * @throws IOException
+	 */
+	public ObjectId getBlobId(final RevCommit commit, final String path)
+			throws IOException {
+		try (TreeWalk treeWalk = TreeWalk.forPath(repository, path,
+				commit.getTree())) {
+			if (treeWalk == null) {
+				return null;
+			}
+			return treeWalk.getObjectId(0);
+		}
+	}
+
+	/**
+	 * Return the ids of the blobs of all the Java files in the commit.
+	 *
+	 * @param commit
+	 * @return the blob ids by path, relative to the root of the repository
+	 * @throws IOException
+	 */
+	public Map<String, ObjectId> getJavaFileBlobIds(final RevCommit commit)
+			throws IOException {
+		final Map<String, ObjectId> blobIds = Maps.newTreeMap();
+		try (TreeWalk treeWalk = new TreeWalk(repository)) {
+			treeWalk.addTree(commit.getTree());
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(PathSuffixFilter.create(".java"));
+			while (treeWalk.next()) {
+				blobIds.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+			}
+		}
+		return blobIds;
+	}
+
+	/**
+	 * Read the contents of a blob.
+	 *
+	 * @param blobId
+	 * @return
+	 * @throws IOException
+	 */
+	public char[] readBlob(final AnyObjectId blobId) throws IOException {
+		final byte[] contents = repository.open(blobId, Constants.OBJ_BLOB)
+				.getBytes();
+		return RawParseUtils.decode(contents).toCharArray();
+	}
+
+}
@@ -3,23 +3,162 @@
  */
 package renaming.history;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.dom.ASTNode;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 /**
+ * Information about the declaration of an identifier at a given commit. To
+ * keep long histories in memory, the commit, path and type are stored as ids
+ * of shared symbol tables and the AST ancestors as interned paths of node
+ * types.
+ *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
  */
 public class IdentifierInformation {
 
-	public final String SHA;
-	public final String filePath;
+	/**
+	 * The node types of the AST ancestors of a declaration, from the parent
+	 * to the root. Paths are interned, so equal paths are the same object.
+	 *
+	 */
+	static final class AstPath {
+
+		private static final Interner<AstPath> INTERNER = Interners
+				.newWeakInterner();
+
+		private static final Map<String, Integer> NODE_TYPES = getNodeTypesByClassName();
+
+		/**
+		 * Return the (interned) path of the ancestors of the node.
+		 *
+		 * @param node
+		 * @return
+		 */
+		static AstPath ofParents(final ASTNode node) {
+			int depth = 0;
+			for (ASTNode parent = node.getParent(); parent != null; parent = parent
+					.getParent()) {
+				depth++;
+			}
+			final int[] nodeTypes = new int[depth];
+			int i = 0;
+			for (ASTNode parent = node.getParent(); parent != null; parent = parent
+					.getParent()) {
+				nodeTypes[i++] = parent.getNodeType();
+			}
+			return INTERNER.intern(new AstPath(nodeTypes));
+		}
+
+		/**
+		 * Return the (interned) path of the given ancestor class names.
+		 *
+		 * @param classNames
+		 * @return
+		 */
+		static AstPath ofClassNames(final List<String> classNames) {
+			final int[] nodeTypes = new int[classNames.size()];
+			for (int i = 0; i < nodeTypes.length; i++) {
+				final Integer nodeType = NODE_TYPES.get(classNames.get(i));
+				checkArgument(nodeType != null, "Unknown AST node %s",
+						classNames.get(i));
+				nodeTypes[i] = nodeType;
+			}
+			return INTERNER.intern(new AstPath(nodeTypes));
+		}
+
+		/**
+		 * Return the (interned) path of the given node types. The array must
+		 * not be modified afterwards.
+		 *
+		 * @param nodeTypes
+		 * @return
+		 */
+		static AstPath ofNodeTypes(final int[] nodeTypes) {
+			return INTERNER.intern(new AstPath(nodeTypes));
+		}
+
+		/**
+		 * The JDT node types are numbered from 1 onwards.
+		 */
+		private static Map<String, Integer> getNodeTypesByClassName() {
+			final Map<String, Integer> nodeTypes = Maps.newHashMap();
+			for (int nodeType = 1;; nodeType++) {
+				try {
+					nodeTypes.put(ASTNode.nodeClassForType(nodeType).getName(),
+							nodeType);
+				} catch (final IllegalArgumentException e) {
+					return nodeTypes;
+				}
+			}
+		}
+
+		private final int[] nodeTypes;
+
+		private final int hashCode;
+
+		private AstPath(final int[] nodeTypes) {
+			this.nodeTypes = nodeTypes;
+			hashCode = Arrays.hashCode(nodeTypes);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof AstPath)) {
+				return false;
+			}
+			return Arrays.equals(nodeTypes, ((AstPath) obj).nodeTypes);
+		}
+
+		/**
+		 * Return the node types of the path. The array is shared and must not
+		 * be modified.
+		 */
+		int[] getNodeTypes() {
+			return nodeTypes;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		List<String> toClassNames() {
+			final List<String> classNames = Lists
+					.newArrayListWithCapacity(nodeTypes.length);
+			for (final int nodeType : nodeTypes) {
+				classNames.add(ASTNode.nodeClassForType(nodeType).getName());
+			}
+			return classNames;
+		}
+	}
+
+	private static final SymbolTable SHAS = new SymbolTable();
+
+	private static final SymbolTable PATHS = new SymbolTable();
+
+	private static final SymbolTable TYPES = new SymbolTable();
+
+	final int shaId;
+	final int filePathId;
 	public final String name;
-	public final String type;
-	public final List<String> declaringAstParent;
+	final int typeId;
+	final AstPath declaringAstParent;
 	public final int declarationLineNumber;
 
 	/**
@@ -28,12 +167,30 @@ public class IdentifierInformation {
 	public IdentifierInformation(final String sha, final String filePath,
 			final String name, final String type, final int declarationLine,
 			final List<String> declaringAstParents) {
-		this.SHA = checkNotNull(sha);
-		this.filePath = checkNotNull(filePath);
+		this(SHAS.getId(checkNotNull(sha)), PATHS
+				.getId(checkNotNull(filePath)), name, TYPES
+				.getId(checkNotNull(type)), declarationLine, AstPath
+				.ofClassNames(declaringAstParents));
+	}
+
+	IdentifierInformation(final int shaId, final int filePathId,
+			final String name, final int typeId, final int declarationLine,
+			final AstPath declaringAstParent) {
+		this.shaId = shaId;
+		this.filePathId = filePathId;
 		this.name = checkNotNull(name);
-		this.type = checkNotNull(type);
+		this.typeId = typeId;
 		this.declarationLineNumber = declarationLine;
-		this.declaringAstParent = declaringAstParents;
+		this.declaringAstParent = checkNotNull(declaringAstParent);
+	}
+
+	IdentifierInformation(final String sha, final String filePath,
+			final String name, final String type, final int declarationLine,
+			final AstPath declaringAstParent) {
+		this(SHAS.getId(checkNotNull(sha)), PATHS
+				.getId(checkNotNull(filePath)), name, TYPES
+				.getId(checkNotNull(type)), declarationLine,
+				declaringAstParent);
 	}
 
 	/**
@@ -43,13 +200,13 @@ public class IdentifierInformation {
 	 * @return
 	 */
 	public boolean areProbablyIdentical(final IdentifierInformation other) {
-		return name.equals(other.name) && type.equals(other.type)
-				&& declaringAstParent.equals(other.declaringAstParent);
+		return areTypeEqual(other) && name.equals(other.name);
 	}
 
 	public boolean areTypeEqual(final IdentifierInformation other) {
-		return type.equals(other.type)
-				&& declaringAstParent.equals(other.declaringAstParent);
+		// Ancestor paths are interned
+		return typeId == other.typeId
+				&& declaringAstParent == other.declaringAstParent;
 	}
 
 	/*
@@ -69,12 +226,26 @@ public class IdentifierInformation {
 			return false;
 		}
 		final IdentifierInformation other = (IdentifierInformation) obj;
-		return Objects.equal(SHA, other.SHA)
-				&& Objects.equal(filePath, other.filePath)
-				&& Objects.equal(name, other.name)
-				&& Objects.equal(type, other.type)
-				&& Objects.equal(declarationLineNumber,
-						other.declarationLineNumber);
+		return shaId == other.shaId && filePathId == other.filePathId
+				&& typeId == other.typeId
+				&& declarationLineNumber == other.declarationLineNumber
+				&& name.equals(other.name);
+	}
+
+	public List<String> getDeclaringAstParent() {
+		return declaringAstParent.toClassNames();
+	}
+
+	public String getFilePath() {
+		return PATHS.getSymbol(filePathId);
+	}
+
+	public String getSHA() {
+		return SHAS.getSymbol(shaId);
+	}
+
+	public String getType() {
+		return TYPES.getSymbol(typeId);
 	}
 
 	/*
@@ -84,7 +255,7 @@ public class IdentifierInformation {
 	 */
 	@Override
 	public int hashCode() {
-		return Objects.hashCode(SHA, filePath, name, type,
+		return Objects.hashCode(shaId, filePathId, name, typeId,
 				declarationLineNumber);
 	}
 
@@ -96,13 +267,13 @@ public class IdentifierInformation {
 	@Override
 	public String toString() {
 		final StringBuilder builder = new StringBuilder();
-		builder.append(SHA);
+		builder.append(getSHA());
 		builder.append(":");
-		builder.append(filePath);
+		builder.append(getFilePath());
 		builder.append(":");
 		builder.append(name);
 		builder.append(":");
-		builder.append(type);
+		builder.append(getType());
 		builder.append(":");
 		builder.append(declarationLineNumber);
 		return builder.toString();
@@ -17,11 +17,16 @@ import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
 import org.eclipse.jdt.core.dom.VariableDeclarationExpression;
 import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
 import org.eclipse.jdt.core.dom.VariableDeclarationStatement;
+import org.eclipse.jgit.lib.ObjectId;
 
+import renaming.history.IdentifierInformation.AstPath;
+import renaming.history.IdentifierScanCache.CachedDeclaration;
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.MethodUtils;
+import codemining.languagetools.ParseType;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 /**
@@ -34,17 +39,6 @@ public class IdentifierInformationScanner {
 
 	private static class DeclarationExtractor extends ASTVisitor {
 
-		public static List<String> getAstParentString(final ASTNode node) {
-			final List<String> ancestry = Lists.newArrayList();
-			ASTNode parentNode = node.getParent();
-			while (parentNode != null) {
-				ancestry.add(ASTNode.nodeClassForType(parentNode.getNodeType())
-						.getName());
-				parentNode = parentNode.getParent();
-			}
-			return ancestry;
-		}
-
 		final Set<IdentifierInformation> identifiers = Sets.newHashSet();
 		private final String SHA;
 
@@ -70,7 +64,7 @@ public class IdentifierInformationScanner {
 				final IdentifierInformation vd = new IdentifierInformation(SHA,
 						file, vdf.getName().getIdentifier(), node.getType()
 								.toString(), getLineNumber(vdf),
-						getAstParentString(vdf));
+						AstPath.ofParents(vdf));
 				identifiers.add(vd);
 			}
 			return super.visit(node);
@@ -89,7 +83,7 @@ public class IdentifierInformationScanner {
 
 			final IdentifierInformation md = new IdentifierInformation(SHA,
 					file, node.getName().getIdentifier(), methodType,
-					getLineNumber(node), getAstParentString(node));
+					getLineNumber(node), AstPath.ofParents(node));
 			identifiers.add(md);
 			return super.visit(node);
 		}
@@ -106,7 +100,7 @@ public class IdentifierInformationScanner {
 			final IdentifierInformation vd = new IdentifierInformation(SHA,
 					file, node.getName().getIdentifier(), node.getType()
 							.toString().toString(), getLineNumber(node),
-					getAstParentString(node));
+					AstPath.ofParents(node));
 			identifiers.add(vd);
 			return super.visit(node);
 		}
@@ -125,7 +119,7 @@ public class IdentifierInformationScanner {
 				final IdentifierInformation vd = new IdentifierInformation(SHA,
 						file, vdf.getName().getIdentifier(), node.getType()
 								.toString(), getLineNumber(vdf),
-						getAstParentString(vdf));
+						AstPath.ofParents(vdf));
 				identifiers.add(vd);
 			}
 			return super.visit(node);
@@ -145,7 +139,7 @@ public class IdentifierInformationScanner {
 				final IdentifierInformation vd = new IdentifierInformation(SHA,
 						file, vdf.getName().getIdentifier(), node.getType()
 								.toString(), getLineNumber(vdf),
-						getAstParentString(vdf));
+						AstPath.ofParents(vdf));
 				identifiers.add(vd);
 			}
 			return super.visit(node);
@@ -164,11 +158,28 @@ public class IdentifierInformationScanner {
 		}
 	}
 
+	private static final Timer PARSING_TIMER = Metrics.timer("astParsing");
+
 	final JavaASTExtractor astExtactor = new JavaASTExtractor(false);
 
+	/**
+	 * The cache of the declarations per blob. May be null.
+	 */
+	private final IdentifierScanCache cache;
+
+	public IdentifierInformationScanner() {
+		this(null);
+	}
+
+	public IdentifierInformationScanner(final IdentifierScanCache cache) {
+		this.cache = cache;
+	}
+
 	public final Set<IdentifierInformation> scanFile(final File file,
 			final String sha) throws IOException {
+		final Timer.Context parsingTime = PARSING_TIMER.time();
 		final CompilationUnit cu = astExtactor.getAST(file);
+		parsingTime.stop();
 		final DeclarationExtractor de = new DeclarationExtractor(sha,
 				file.getAbsolutePath(), cu);
 		cu.accept(de);
@@ -177,4 +188,85 @@ public class IdentifierInformationScanner {
 		return identifiers;
 	}
 
+	/**
+	 * Scan a file whose contents have the given git blob id. If the blob has
+	 * already been scanned, the cached declarations are returned without
+	 * parsing the file.
+	 *
+	 * @param file
+	 * @param sha
+	 * @param blobId
+	 * @return
+	 * @throws IOException
+	 */
+	public final Set<IdentifierInformation> scanFile(final File file,
+			final String sha, final ObjectId blobId) throws IOException {
+		if (cache == null) {
+			return scanFile(file, sha);
+		}
+		List<CachedDeclaration> declarations = cache.get(blobId);
+		if (declarations == null) {
+			declarations = cache.put(blobId, scanFile(file, sha));
+		}
+		return toIdentifierInformation(declarations, sha,
+				file.getAbsolutePath());
+	}
+
+	/**
+	 * Scan a blob of the git object database. The blob is read only if it is
+	 * not already cached.
+	 *
+	 * @param reader
+	 * @param blobId
+	 * @param filePath
+	 *            the path that the declarations will have
+	 * @param sha
+	 * @return
+	 * @throws IOException
+	 */
+	public final Set<IdentifierInformation> scanBlob(
+			final GitObjectDatabaseReader reader, final ObjectId blobId,
+			final String filePath, final String sha) throws IOException {
+		if (cache == null) {
+			return scanCode(reader.readBlob(blobId), filePath, sha);
+		}
+		List<CachedDeclaration> declarations = cache.get(blobId);
+		if (declarations == null) {
+			declarations = cache.put(blobId,
+					scanCode(reader.readBlob(blobId), filePath, sha));
+		}
+		return toIdentifierInformation(declarations, sha, filePath);
+	}
+
+	/**
+	 * Scan the code of a compilation unit that is already in memory.
+	 *
+	 * @param code
+	 * @param filePath
+	 *            the path that the declarations will have
+	 * @param sha
+	 * @return
+	 */
+	public final Set<IdentifierInformation> scanCode(final char[] code,
+			final String filePath, final String sha) {
+		final Timer.Context parsingTime = PARSING_TIMER.time();
+		final CompilationUnit cu = (CompilationUnit) astExtactor.getASTNode(
+				code, ParseType.COMPILATION_UNIT);
+		parsingTime.stop();
+		final DeclarationExtractor de = new DeclarationExtractor(sha,
+				filePath, cu);
+		cu.accept(de);
+		return de.identifiers;
+	}
+
+	private Set<IdentifierInformation> toIdentifierInformation(
+			final List<CachedDeclaration> declarations, final String sha,
+			final String filePath) {
+		final Set<IdentifierInformation> identifiers = Sets.newHashSet();
+		for (final CachedDeclaration declaration : declarations) {
+			identifiers.add(declaration.toIdentifierInformation(sha, filePath));
+		}
+		return identifiers;
+	}
+
 }
@@ -0,0 +1,228 @@
+/**
+ *
+ */
+package renaming.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.SerializationException;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.lib.ObjectId;
+
+import renaming.history.IdentifierInformation.AstPath;
+import codemining.util.SettingsLoader;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * A content-addressed cache of the declarations found in a file, keyed by the
+ * git blob id of the file contents. Since the declarations depend only on the
+ * contents, a blob that appears in many commits (e.g. identical across
+ * branches or reverted to earlier contents) is parsed only once. The cached
+ * declarations do not contain the commit or the path, these are added when
+ * the declarations are retrieved.
+ *
+ * The cache is optionally persisted to the file of the
+ * IdentifierScanCache.file setting, so that it can be reused across runs.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class IdentifierScanCache {
+
+	/**
+	 * A declaration, without the commit and the path it was found in.
+	 *
+	 */
+	static final class CachedDeclaration implements Serializable {
+		private static final long serialVersionUID = 4620173574936108252L;
+
+		final String name;
+
+		final String type;
+
+		final int declarationLineNumber;
+
+		/**
+		 * The JDT node types of the AST ancestors.
+		 */
+		final int[] declaringAstParent;
+
+		CachedDeclaration(final IdentifierInformation idInfo) {
+			name = idInfo.name;
+			type = idInfo.getType();
+			declarationLineNumber = idInfo.declarationLineNumber;
+			declaringAstParent = idInfo.declaringAstParent.getNodeTypes();
+		}
+
+		IdentifierInformation toIdentifierInformation(final String sha,
+				final String filePath) {
+			return new IdentifierInformation(sha, filePath, name, type,
+					declarationLineNumber,
+					AstPath.ofNodeTypes(declaringAstParent));
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(IdentifierScanCache.class.getName());
+
+	public static final String CACHE_FILE = SettingsLoader.getStringSetting(
+			"IdentifierScanCache.file", "");
+
+	/**
+	 * Return the cache, loaded from the file of the IdentifierScanCache.file
+	 * setting, if set.
+	 *
+	 * @return
+	 */
+	public static IdentifierScanCache fromSettings() {
+		if (CACHE_FILE.isEmpty()) {
+			return new IdentifierScanCache(null);
+		}
+		return new IdentifierScanCache(new File(CACHE_FILE));
+	}
+
+	private final ConcurrentMap<ObjectId, List<CachedDeclaration>> declarationsByBlob;
+
+	private final File cacheFile;
+
+	/**
+	 * @param cacheFile
+	 *            the file where the cache is persisted. If null, the cache is
+	 *            kept only in memory.
+	 */
+	public IdentifierScanCache(final File cacheFile) {
+		this.cacheFile = cacheFile;
+		declarationsByBlob = Maps.newConcurrentMap();
+		if (cacheFile != null && cacheFile.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * Return the cached declarations of the blob, or null if the blob has not
+	 * been scanned.
+	 *
+	 * @param blobId
+	 * @return
+	 */
+	List<CachedDeclaration> get(final ObjectId blobId) {
+		return declarationsByBlob.get(blobId);
+	}
+
+	/**
+	 * Cache the declarations of the blob.
+	 *
+	 * @param blobId
+	 * @param declarations
+	 *            the declarations found in the blob, at any commit and path
+	 * @return the cached declarations
+	 */
+	List<CachedDeclaration> put(final ObjectId blobId,
+			final Iterable<IdentifierInformation> declarations) {
+		final ImmutableList.Builder<CachedDeclaration> cached = ImmutableList
+				.builder();
+		for (final IdentifierInformation declaration : declarations) {
+			cached.add(new CachedDeclaration(declaration));
+		}
+		final List<CachedDeclaration> cachedDeclarations = cached.build();
+		declarationsByBlob.put(blobId.copy(), cachedDeclarations);
+		return cachedDeclarations;
+	}
+
+	/**
+	 * Return the persisted cache with its element types checked, since the
+	 * file may have been written by another version or be corrupt.
+	 *
+	 * @param persisted
+	 *            the deserialized object
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the object is not a map of blob ids to declarations
+	 */
+	private static Map<ObjectId, List<CachedDeclaration>> checkPersistedTypes(
+			final Object persisted) {
+		checkArgument(persisted instanceof Map, "Not a map: %s", persisted);
+		final Map<?, ?> map = (Map<?, ?>) persisted;
+		final Map<ObjectId, List<CachedDeclaration>> checked = Maps
+				.newHashMapWithExpectedSize(map.size());
+		for (final Map.Entry<?, ?> entry : map.entrySet()) {
+			checkArgument(entry.getKey() instanceof ObjectId,
+					"Not a blob id: %s", entry.getKey());
+			checkArgument(entry.getValue() instanceof List,
+					"Not a list of declarations: %s", entry.getValue());
+			final ImmutableList.Builder<CachedDeclaration> declarations = ImmutableList
+					.builder();
+			for (final Object declaration : (List<?>) entry.getValue()) {
+				checkArgument(declaration instanceof CachedDeclaration,
+						"Not a declaration: %s", declaration);
+				declarations.add((CachedDeclaration) declaration);
+			}
+			checked.put((ObjectId) entry.getKey(), declarations.build());
+		}
+		return checked;
+	}
+
+	private void load() {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(
+				cacheFile))) {
+			final Map<ObjectId, List<CachedDeclaration>> persisted = checkPersistedTypes(SerializationUtils
+					.deserialize(in));
+			declarationsByBlob.putAll(persisted);
+			LOGGER.info("Loaded " + persisted.size() + " cached blobs from "
+					+ cacheFile.getAbsolutePath());
+		} catch (final IOException | SerializationException
+				| IllegalArgumentException e) {
+			LOGGER.warning("Ignoring scan cache " + cacheFile.getAbsolutePath()
+					+ " " + ExceptionUtils.getFullStackTrace(e));
+		}
+	}
+
+	/**
+	 * Persist the cache, if it has a file. The cache is written to a
+	 * temporary file and atomically moved.
+	 */
+	public void save() {
+		if (cacheFile == null) {
+			return;
+		}
+		final File tmp = new File(cacheFile.getAbsolutePath() + ".tmp");
+		try {
+			try (OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(tmp))) {
+				SerializationUtils.serialize(
+						Maps.newHashMap(declarationsByBlob), out);
+			}
+			Files.move(tmp.toPath(), cacheFile.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException | SerializationException e) {
+			LOGGER.warning("Failed to persist the scan cache "
+					+ ExceptionUtils.getFullStackTrace(e));
+			tmp.delete();
+		}
+	}
+
+	public int size() {
+		return declarationsByBlob.size();
+	}
+
+}
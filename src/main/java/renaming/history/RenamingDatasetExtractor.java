@@ -5,49 +5,179 @@ import static com.google.common.base.Preconditions.checkArgument;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 
 import renaming.history.RepentDataParser.Renaming;
+import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.binding.JavaApproximateVariableBindingExtractor;
 import codemining.java.codeutils.binding.JavaMethodDeclarationBindingExtractor;
 import codemining.java.codeutils.binding.tui.JavaBindingsToJson.SerializableResolvedSourceCode;
+import codemining.languagetools.ParseType;
 import codemining.languagetools.bindings.ResolvedSourceCode;
+import codemining.util.parallel.ParallelThreadPool;
 
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 import com.google.gson.Gson;
 import com.google.gson.JsonIOException;
 import committools.data.RepositoryFileWalker;
 
 public class RenamingDatasetExtractor {
 
+	private static final Logger LOGGER = Logger
+			.getLogger(RenamingDatasetExtractor.class.getName());
+
 	public static class BindingExtractor extends RepositoryFileWalker {
 
-		List<RenamedSerializableResolvedSourceCode> renamedVariablesDatapoints = Lists
-				.newArrayList();
+		/**
+		 * The sinks where the datapoints are written, as soon as they are
+		 * extracted.
+		 */
+		final RenamingDatasetWriter renamedVariablesDatapoints;
 
-		List<RenamedSerializableResolvedSourceCode> renamedMethodDeclarationsDatapoints = Lists
-				.newArrayList();
+		final RenamingDatasetWriter renamedMethodDeclarationsDatapoints;
 
 		final Multimap<String, Renaming> renamings;
 
-		private final JavaApproximateVariableBindingExtractor variableExtractor = new JavaApproximateVariableBindingExtractor();
-		private final JavaMethodDeclarationBindingExtractor methodDeclExtractor = new JavaMethodDeclarationBindingExtractor();
+		private final GitObjectDatabaseReader objectDatabaseReader;
+
+		/**
+		 * The pool where commits are processed, when they are read from the
+		 * object database.
+		 */
+		private final ParallelThreadPool threadPool = new ParallelThreadPool();
 
 		public BindingExtractor(final String repositoryDirectory,
-				final Multimap<String, Renaming> renamings) throws IOException {
+				final Multimap<String, Renaming> renamings,
+				final RenamingDatasetWriter renamedVariablesDatapoints,
+				final RenamingDatasetWriter renamedMethodDeclarationsDatapoints)
+				throws IOException {
 			super(repositoryDirectory, RepositoryFileWalker.BASE_WALK);
 			this.renamings = renamings;
+			this.renamedVariablesDatapoints = renamedVariablesDatapoints;
+			this.renamedMethodDeclarationsDatapoints = renamedMethodDeclarationsDatapoints;
+			objectDatabaseReader = new GitObjectDatabaseReader(
+					repository.getRepository());
+		}
+
+		/**
+		 * Wait until all the commits visited so far have been processed.
+		 */
+		public void awaitExtraction() {
+			threadPool.waitForTermination();
+		}
+
+		private void writeDatapoint(final RenamingDatasetWriter sink,
+				final ResolvedSourceCode resolvedCode, final Renaming renaming) {
+			try {
+				sink.write(RenamedSerializableResolvedSourceCode
+						.fromResolvedSourceCode(resolvedCode,
+								Lists.newArrayList(renaming.nameBefore)));
+			} catch (final IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Extract the datapoints of all the renamings of a commit. Each
+		 * renamed file is parsed once and both extractors work on the same
+		 * AST.
+		 *
+		 * @param commit
+		 */
+		private void extractRenamings(final RevCommit commit) {
+			// The extractors are not shared across threads
+			final JavaApproximateVariableBindingExtractor variableExtractor = new JavaApproximateVariableBindingExtractor();
+			final JavaMethodDeclarationBindingExtractor methodDeclExtractor = new JavaMethodDeclarationBindingExtractor();
+			final JavaASTExtractor astExtractor = new JavaASTExtractor(false);
+
+			final Multimap<String, Renaming> renamingsPerFile = ArrayListMultimap
+					.create();
+			for (final Renaming renaming : renamings.get(commit.name())) {
+				renamingsPerFile.put(renaming.filename, renaming);
+			}
+
+			for (final String filename : renamingsPerFile.keySet()) {
+				final String code;
+				try {
+					code = getRenamedFileCode(commit, filename);
+				} catch (final IOException e) {
+					// File always exists, since we checked when reading it.
+					throw new IllegalStateException(e);
+				}
+				final CompilationUnit cu = (CompilationUnit) astExtractor
+						.getASTNode(code, ParseType.COMPILATION_UNIT);
+				final String filePath = new File(
+						repositoryDir.getAbsolutePath() + filename)
+						.getAbsolutePath();
+				final Set<Set<ASTNode>> variableBindings = variableExtractor
+						.getNameBindings(cu);
+				Set<Set<ASTNode>> methodDeclBindings = null;
+
+				for (final Renaming renaming : renamingsPerFile.get(filename)) {
+					ResolvedSourceCode resolvedCode = variableExtractor
+							.getResolvedSourceCode(code, variableBindings,
+									filePath, n -> matchRenaming(renaming, n));
+					if (!resolvedCode.getAllBindings().isEmpty()) {
+						writeDatapoint(renamedVariablesDatapoints, resolvedCode,
+								renaming);
+					} else {
+						if (methodDeclBindings == null) {
+							methodDeclBindings = methodDeclExtractor
+									.getNameBindings(cu);
+						}
+						resolvedCode = methodDeclExtractor
+								.getResolvedSourceCode(code,
+										methodDeclBindings, filePath,
+										n -> matchRenaming(renaming, n));
+						if (!resolvedCode.getAllBindings().isEmpty()) {
+							writeDatapoint(renamedMethodDeclarationsDatapoints,
+									resolvedCode, renaming);
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Return the code of the renamed file at the given commit, either
+		 * from the checked out working tree or from the object database.
+		 *
+		 * @param commit
+		 * @param filename
+		 * @return
+		 * @throws IOException
+		 */
+		private String getRenamedFileCode(final RevCommit commit,
+				final String filename) throws IOException {
+			if (!GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+				final File currentFile = new File(
+						repositoryDir.getAbsolutePath() + filename);
+				checkArgument(currentFile.exists());
+				return FileUtils.readFileToString(currentFile);
+			}
+			final ObjectId blobId = objectDatabaseReader.getBlobId(commit,
+					filename.substring(1));
+			checkArgument(blobId != null, "%s does not exist at %s",
+					filename, commit.name());
+			return new String(objectDatabaseReader.readBlob(blobId));
 		}
 
 		/*
@@ -62,6 +192,19 @@ public class RenamingDatasetExtractor {
 			return renamings.containsKey(commit.name());
 		}
 
+		/**
+		 * When reading from the object database, there is no need to check
+		 * out the commit.
+		 */
+		@Override
+		public void visitCommit(final RevCommit commit) {
+			if (GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+				visitCommitFiles(commit);
+			} else {
+				super.visitCommit(commit);
+			}
+		}
+
 		private boolean matchRenaming(final Renaming renaming, final ASTNode n) {
 			if (!n.toString().equals(renaming.nameAfter)) {
 				return false;
@@ -71,43 +214,26 @@ public class RenamingDatasetExtractor {
 					.getStartPosition()));
 		}
 
+		/**
+		 * Commits read from the object database are independent and are
+		 * processed concurrently. Checked out commits are processed before
+		 * the next checkout.
+		 */
 		@Override
 		public void visitCommitFiles(final RevCommit commit) {
 			System.out.println("Visiting " + commit + " for renamings");
-			final Collection<Renaming> renamingsAtThisPoint = renamings
-					.get(commit.name());
-			for (final Renaming renaming : renamingsAtThisPoint) {
-				// Get the file
-				final File currentFile = new File(
-						repositoryDir.getAbsolutePath() + renaming.filename);
-				checkArgument(currentFile.exists());
-
+			if (!GitObjectDatabaseReader.READ_FROM_OBJECT_DATABASE) {
+				extractRenamings(commit);
+				return;
+			}
+			threadPool.pushTask(() -> {
 				try {
-					ResolvedSourceCode resolvedCode = variableExtractor
-							.getResolvedSourceCode(currentFile,
-									n -> matchRenaming(renaming, n));
-					if (!resolvedCode.getAllBindings().isEmpty()) {
-						renamedVariablesDatapoints
-								.add(RenamedSerializableResolvedSourceCode
-										.fromResolvedSourceCode(
-												resolvedCode,
-												Lists.newArrayList(renaming.nameBefore)));
-					} else {
-						resolvedCode = methodDeclExtractor
-								.getResolvedSourceCode(currentFile,
-										n -> matchRenaming(renaming, n));
-						if (!resolvedCode.getAllBindings().isEmpty()) {
-							renamedMethodDeclarationsDatapoints
-									.add(RenamedSerializableResolvedSourceCode.fromResolvedSourceCode(
-											resolvedCode,
-											Lists.newArrayList(renaming.nameBefore)));
-						}
-					}
-				} catch (final IOException e) {
-					// File always exists, since we checked above.
-					throw new IllegalStateException(e);
+					extractRenamings(commit);
+				} catch (final Throwable e) {
+					LOGGER.severe("Failed to extract renamings of " + commit
+							+ " " + ExceptionUtils.getFullStackTrace(e));
 				}
-			}
+			});
 		}
 	}
 
@@ -145,21 +271,37 @@ public class RenamingDatasetExtractor {
 						return t > 250;
 					}
 				});
-		final List<Renaming> renamings = rdp.parse();
-		final Multimap<String, Renaming> renamingsPerSha = mapRenamingsToTargetSha(renamings);
-		final BindingExtractor be = new BindingExtractor(args[2],
-				renamingsPerSha);
-		be.doWalk();
-
-		writeJson(args[3], "_variables.json", be.renamedVariablesDatapoints);
-		writeJson(args[3], "_methoddeclarations.json",
-				be.renamedMethodDeclarationsDatapoints);
+		final Multimap<String, Renaming> renamingsPerSha;
+		try (Stream<Renaming> renamings = rdp.stream()) {
+			renamingsPerSha = mapRenamingsToTargetSha(renamings.parallel());
+		}
+		try (final RenamingDatasetWriter variablesWriter = new RenamingDatasetWriter(
+				args[3], "_variables.json");
+				final RenamingDatasetWriter methodDeclarationsWriter = new RenamingDatasetWriter(
+						args[3], "_methoddeclarations.json")) {
+			final BindingExtractor be = new BindingExtractor(args[2],
+					renamingsPerSha, variablesWriter, methodDeclarationsWriter);
+			be.doWalk();
+			be.awaitExtraction();
+		}
 	}
 
 	public static Multimap<String, Renaming> mapRenamingsToTargetSha(
 			final List<Renaming> renamings) {
-		final Multimap<String, Renaming> renamingsPerSha = HashMultimap
-				.create();
+		return mapRenamingsToTargetSha(renamings.stream());
+	}
+
+	/**
+	 * Map the renamings to their target commit, as they are parsed. The
+	 * stream may be parallel.
+	 *
+	 * @param renamings
+	 * @return
+	 */
+	public static Multimap<String, Renaming> mapRenamingsToTargetSha(
+			final Stream<Renaming> renamings) {
+		final Multimap<String, Renaming> renamingsPerSha = Multimaps
+				.synchronizedSetMultimap(HashMultimap.<String, Renaming> create());
 		renamings.forEach(r -> renamingsPerSha.put(r.toVersion, r));
 		return renamingsPerSha;
 	}
@@ -0,0 +1,163 @@
+/**
+ *
+ */
+package renaming.history;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import renaming.history.RenamingDatasetExtractor.RenamedSerializableResolvedSourceCode;
+import codemining.util.SettingsLoader;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A sink that streams renaming datapoints to disk as they are produced,
+ * instead of keeping the whole dataset in memory. Each output file is a JSON
+ * array of datapoints, in the same format as
+ * {@link RenamingDatasetExtractor#writeJson}.
+ *
+ * If the RenamingDatasetWriter.maxDatapointsPerFile setting is positive, the
+ * dataset is split into chunks of at most that many datapoints, named
+ * prefix_00000suffix, prefix_00001suffix etc. If RenamingDatasetWriter.gzip is
+ * set, the files are gzip-compressed and .gz is appended to their name.
+ *
+ * This class is thread-safe.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class RenamingDatasetWriter implements Closeable {
+
+	public static final int MAX_DATAPOINTS_PER_FILE = (int) SettingsLoader
+			.getNumericSetting("RenamingDatasetWriter.maxDatapointsPerFile", 0);
+
+	public static final boolean GZIP = SettingsLoader.getBooleanSetting(
+			"RenamingDatasetWriter.gzip", false);
+
+	private final String outputFilePrefix;
+
+	private final String outputFileSuffix;
+
+	private final int maxDatapointsPerFile;
+
+	private final boolean gzip;
+
+	private final Gson gson = new Gson();
+
+	private JsonWriter currentWriter = null;
+
+	private int nChunks = 0;
+
+	private int nDatapointsInChunk = 0;
+
+	private long nDatapoints = 0;
+
+	/**
+	 * Create a writer using the chunking and compression settings.
+	 *
+	 * @param outputFilePrefix
+	 * @param outputFileSuffix
+	 */
+	public RenamingDatasetWriter(final String outputFilePrefix,
+			final String outputFileSuffix) {
+		this(outputFilePrefix, outputFileSuffix, MAX_DATAPOINTS_PER_FILE, GZIP);
+	}
+
+	/**
+	 * @param outputFilePrefix
+	 * @param outputFileSuffix
+	 * @param maxDatapointsPerFile
+	 *            the maximum number of datapoints per file or 0 to write a
+	 *            single file
+	 * @param gzip
+	 *            true to compress the files
+	 */
+	public RenamingDatasetWriter(final String outputFilePrefix,
+			final String outputFileSuffix, final int maxDatapointsPerFile,
+			final boolean gzip) {
+		checkArgument(maxDatapointsPerFile >= 0);
+		this.outputFilePrefix = outputFilePrefix;
+		this.outputFileSuffix = outputFileSuffix;
+		this.maxDatapointsPerFile = maxDatapointsPerFile;
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Write the last chunk. An empty dataset is written as a single empty
+	 * array, as before.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (currentWriter == null && nChunks == 0) {
+			openChunk();
+		}
+		closeChunk();
+	}
+
+	private void closeChunk() throws IOException {
+		if (currentWriter == null) {
+			return;
+		}
+		currentWriter.endArray();
+		currentWriter.close();
+		currentWriter = null;
+	}
+
+	private File getChunkFile() {
+		final String chunkName = maxDatapointsPerFile > 0 ? String.format(
+				"_%05d", nChunks) : "";
+		return new File(outputFilePrefix + chunkName + outputFileSuffix
+				+ (gzip ? ".gz" : ""));
+	}
+
+	public synchronized long getNumDatapoints() {
+		return nDatapoints;
+	}
+
+	private void openChunk() throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				getChunkFile()));
+		if (gzip) {
+			out = new GZIPOutputStream(out);
+		}
+		currentWriter = new JsonWriter(new OutputStreamWriter(out,
+				StandardCharsets.UTF_8));
+		currentWriter.beginArray();
+		nChunks++;
+		nDatapointsInChunk = 0;
+	}
+
+	/**
+	 * Append a datapoint to the dataset.
+	 *
+	 * @param datapoint
+	 * @throws IOException
+	 */
+	public synchronized void write(
+			final RenamedSerializableResolvedSourceCode datapoint)
+			throws IOException {
+		if (currentWriter != null && maxDatapointsPerFile > 0
+				&& nDatapointsInChunk >= maxDatapointsPerFile) {
+			closeChunk();
+		}
+		if (currentWriter == null) {
+			openChunk();
+		}
+		gson.toJson(datapoint, RenamedSerializableResolvedSourceCode.class,
+				currentWriter);
+		nDatapointsInChunk++;
+		nDatapoints++;
+	}
+
+}
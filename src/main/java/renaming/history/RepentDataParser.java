@@ -5,25 +5,32 @@ package renaming.history;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
 
 import com.google.common.collect.BiMap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Range;
 
 /**
- * Parse the REPENT data
+ * Parse the REPENT data. The data file is streamed line by line, so that
+ * renamings are emitted lazily and large files can be parsed in parallel.
  *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
@@ -67,6 +74,23 @@ public class RepentDataParser {
 
 	}
 
+	/**
+	 * The fields of a line of the data file, before they are mapped to git
+	 * commits.
+	 *
+	 */
+	static final class ParsedLine {
+		String filename;
+		int fromRevision;
+		int toRevision;
+		int linesBeforeStart;
+		int linesBeforeEnd;
+		int linesAfterStart;
+		int linesAfterEnd;
+		String nameBefore;
+		String nameAfter;
+	}
+
 	/**
 	 * @param args
 	 * @throws IOException
@@ -100,12 +124,169 @@ public class RepentDataParser {
 	private final BiMap<Integer, String> gitShaMap;
 	private final String filePrefix;
 
-	Pattern lineMatcher = Pattern
+	/**
+	 * The full grammar of a line. Only used for lines that the fast path
+	 * cannot parse.
+	 */
+	private static final Pattern LINE_PATTERN = Pattern
 			.compile("^(\\S+\\.java)_DiffLine_(\\d+)-(\\d+):(((\\d+)-?(\\d+)?),((\\d+)-?(\\d+)?))+:([a-zA-Z0-9_]+)->([a-zA-Z0-9_]+)");
 
+	private static final String DIFF_LINE_MARKER = ".java_DiffLine_";
+
 	private static final Logger LOGGER = Logger
 			.getLogger(RepentDataParser.class.getName());
 
+	private static boolean isIdentifierChar(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0'
+				&& c <= '9' || c == '_';
+	}
+
+	private static boolean isRegexWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+				|| c == '\f' || c == '\r';
+	}
+
+	/**
+	 * Parse a line with a single pass over its characters. This accepts the
+	 * same lines as LINE_PATTERN and extracts the same fields, apart from
+	 * lines with repeated line ranges, which are left to the regex.
+	 *
+	 * @param line
+	 * @return the parsed line or null if the fast path cannot parse it
+	 */
+	static ParsedLine parseFast(final String line) {
+		// The filename is greedy, so the last marker is the one that matches
+		final int markerPos = line.lastIndexOf(DIFF_LINE_MARKER);
+		if (markerPos < 1) {
+			return null;
+		}
+		final ParsedLine parsed = new ParsedLine();
+		parsed.filename = line.substring(0, markerPos + 5);
+		for (int i = 0; i < parsed.filename.length(); i++) {
+			if (isRegexWhitespace(parsed.filename.charAt(i))) {
+				return null;
+			}
+		}
+
+		int pos = markerPos + DIFF_LINE_MARKER.length();
+		int end = skipDigits(line, pos);
+		if (end == pos || end >= line.length() || line.charAt(end) != '-') {
+			return null;
+		}
+		parsed.fromRevision = Integer.parseInt(line.substring(pos, end));
+		pos = end + 1;
+		end = skipDigits(line, pos);
+		if (end == pos || end >= line.length() || line.charAt(end) != ':') {
+			return null;
+		}
+		parsed.toRevision = Integer.parseInt(line.substring(pos, end));
+
+		// linesBefore, followed by ','
+		pos = end + 1;
+		end = skipDigits(line, pos);
+		if (end == pos) {
+			return null;
+		}
+		parsed.linesBeforeStart = Integer.parseInt(line.substring(pos, end));
+		parsed.linesBeforeEnd = parsed.linesBeforeStart;
+		pos = end;
+		if (pos < line.length() && line.charAt(pos) == '-') {
+			pos++;
+		}
+		end = skipDigits(line, pos);
+		if (end > pos) {
+			parsed.linesBeforeEnd = Integer.parseInt(line.substring(pos, end));
+		}
+		if (end >= line.length() || line.charAt(end) != ',') {
+			return null;
+		}
+
+		// linesAfter, followed by ':'
+		pos = end + 1;
+		end = skipDigits(line, pos);
+		if (end == pos) {
+			return null;
+		}
+		parsed.linesAfterStart = Integer.parseInt(line.substring(pos, end));
+		parsed.linesAfterEnd = parsed.linesAfterStart;
+		pos = end;
+		if (pos < line.length() && line.charAt(pos) == '-') {
+			pos++;
+		}
+		end = skipDigits(line, pos);
+		if (end > pos) {
+			parsed.linesAfterEnd = Integer.parseInt(line.substring(pos, end));
+		}
+		if (end >= line.length() || line.charAt(end) != ':') {
+			return null;
+		}
+
+		// nameBefore->nameAfter
+		pos = end + 1;
+		end = pos;
+		while (end < line.length() && isIdentifierChar(line.charAt(end))) {
+			end++;
+		}
+		if (end == pos || !line.startsWith("->", end)) {
+			return null;
+		}
+		parsed.nameBefore = line.substring(pos, end);
+		pos = end + 2;
+		end = pos;
+		while (end < line.length() && isIdentifierChar(line.charAt(end))) {
+			end++;
+		}
+		if (end == pos) {
+			return null;
+		}
+		parsed.nameAfter = line.substring(pos, end);
+		return parsed;
+	}
+
+	/**
+	 * Parse a line with the full regular expression.
+	 *
+	 * @param line
+	 * @return the parsed line or null if the line does not match
+	 */
+	static ParsedLine parseWithRegex(final String line) {
+		final Matcher matcher = LINE_PATTERN.matcher(line);
+		if (!matcher.find()) {
+			return null;
+		}
+		final ParsedLine parsed = new ParsedLine();
+		parsed.filename = matcher.group(1);
+		parsed.fromRevision = Integer.parseInt(matcher.group(2));
+		parsed.toRevision = Integer.parseInt(matcher.group(3));
+		parsed.linesBeforeStart = Integer.parseInt(matcher.group(6));
+		if (matcher.group(7) != null) {
+			parsed.linesBeforeEnd = Integer.parseInt(matcher.group(7));
+		} else {
+			parsed.linesBeforeEnd = parsed.linesBeforeStart;
+		}
+		parsed.linesAfterStart = Integer.parseInt(matcher.group(9));
+		if (matcher.group(10) != null) {
+			parsed.linesAfterEnd = Integer.parseInt(matcher.group(10));
+		} else {
+			parsed.linesAfterEnd = parsed.linesAfterStart;
+		}
+		parsed.nameBefore = matcher.group(11);
+		parsed.nameAfter = matcher.group(12);
+		return parsed;
+	}
+
+	/**
+	 * Return the end of the run of digits starting at pos.
+	 */
+	private static int skipDigits(final String line, final int pos) {
+		int end = pos;
+		while (end < line.length() && line.charAt(end) >= '0'
+				&& line.charAt(end) <= '9') {
+			end++;
+		}
+		return end;
+	}
+
 	private final Predicate<Integer> revisionFilter;
 
 	/**
@@ -120,51 +301,75 @@ public class RepentDataParser {
 		this.revisionFilter = revisionFilter;
 	}
 
+	/**
+	 * Parse all the renamings of the data file, in parallel.
+	 *
+	 * @return the renamings, in the order of the data file
+	 * @throws IOException
+	 */
 	public List<Renaming> parse() throws IOException {
-		final List<Renaming> allRenamings = Lists.newArrayList();
-		for (final String line : FileUtils.readLines(datafile)) {
-			final Matcher matcher = lineMatcher.matcher(line);
-			if (matcher.find()) {
-				final Renaming renamingPoint = new Renaming();
-				renamingPoint.filename = matcher.group(1);
-				checkArgument(renamingPoint.filename.startsWith(filePrefix));
-				renamingPoint.filename = renamingPoint.filename
-						.substring(filePrefix.length());
-				renamingPoint.fromVersion = gitShaMap.get(Integer
-						.parseInt(matcher.group(2)));
-				final int toRevision = Integer.parseInt(matcher.group(3));
-				if (!revisionFilter.test(toRevision)) {
-					continue;
-				}
-				renamingPoint.toVersion = gitShaMap.get(toRevision);
-
-				if (matcher.group(7) != null) {
-					renamingPoint.linesBefore = Range.closed(
-							Integer.parseInt(matcher.group(6)),
-							Integer.parseInt(matcher.group(7)));
-				} else {
-					renamingPoint.linesBefore = Range.closed(
-							Integer.parseInt(matcher.group(6)),
-							Integer.parseInt(matcher.group(6)));
-				}
-
-				if (matcher.group(10) != null) {
-					renamingPoint.linesAfter = Range.closed(
-							Integer.parseInt(matcher.group(9)),
-							Integer.parseInt(matcher.group(10)));
-				} else {
-					renamingPoint.linesAfter = Range.closed(
-							Integer.parseInt(matcher.group(9)),
-							Integer.parseInt(matcher.group(9)));
-				}
-				renamingPoint.nameBefore = matcher.group(11);
-				renamingPoint.nameAfter = matcher.group(12);
-				allRenamings.add(renamingPoint);
-			} else {
-				LOGGER.warning("Failed to parse " + line);
-			}
+		try (Stream<Renaming> renamings = stream()) {
+			return renamings.parallel().collect(Collectors.toList());
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Return the renaming of a line, or null if the line cannot be parsed
+	 * or its revision is filtered out.
+	 *
+	 * @param line
+	 * @return
+	 */
+	private Renaming parseLine(final String line) {
+		ParsedLine parsed = parseFast(line);
+		if (parsed == null) {
+			parsed = parseWithRegex(line);
+		}
+		if (parsed == null) {
+			LOGGER.warning("Failed to parse " + line);
+			return null;
 		}
-		return allRenamings;
+		final Renaming renamingPoint = new Renaming();
+		checkArgument(parsed.filename.startsWith(filePrefix));
+		renamingPoint.filename = parsed.filename.substring(filePrefix.length());
+		renamingPoint.fromVersion = gitShaMap.get(parsed.fromRevision);
+		if (!revisionFilter.test(parsed.toRevision)) {
+			return null;
+		}
+		renamingPoint.toVersion = gitShaMap.get(parsed.toRevision);
+		renamingPoint.linesBefore = Range.closed(parsed.linesBeforeStart,
+				parsed.linesBeforeEnd);
+		renamingPoint.linesAfter = Range.closed(parsed.linesAfterStart,
+				parsed.linesAfterEnd);
+		renamingPoint.nameBefore = parsed.nameBefore;
+		renamingPoint.nameAfter = parsed.nameAfter;
+		return renamingPoint;
+	}
+
+	/**
+	 * Return a lazy stream of the renamings of the data file. Lines are read
+	 * and parsed only as the stream is consumed and the stream may be made
+	 * parallel. The stream must be closed to close the data file. Bytes
+	 * that are not valid in the default charset are replaced, rather than
+	 * failing the whole stream.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Stream<Renaming> stream() throws IOException {
+		// Unlike Files.newBufferedReader(), this replaces malformed input
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(datafile), Charset.defaultCharset()));
+		return reader.lines().map(this::parseLine).filter(Objects::nonNull)
+				.onClose(() -> {
+					try {
+						reader.close();
+					} catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
 	}
 
 }
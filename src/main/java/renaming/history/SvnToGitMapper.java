@@ -3,22 +3,45 @@
  */
 package renaming.history;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map.Entry;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import codemining.util.SettingsLoader;
 
 import com.google.common.collect.BiMap;
 import com.google.common.collect.HashBiMap;
 import committools.data.GitCommitUtils;
 
 /**
- * Map SVN revisions to Git SHAs.
+ * Map SVN revisions to Git SHAs. Unless SvnToGitMapper.persistMap is false,
+ * the map is kept in a compact sidecar file in the git directory, keyed by
+ * the HEAD it was computed for, so that only the commits added since the
+ * last run are scanned.
  *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
@@ -42,6 +65,20 @@ public class SvnToGitMapper {
 		System.out.println(mapper.mapSvnToGit());
 	}
 
+	private static final Logger LOGGER = Logger.getLogger(SvnToGitMapper.class
+			.getName());
+
+	/**
+	 * If true, the map is persisted in a sidecar file in the git directory
+	 * and updated incrementally with the commits added since the last run.
+	 */
+	public static final boolean PERSIST_MAP = SettingsLoader.getBooleanSetting(
+			"SvnToGitMapper.persistMap", true);
+
+	public static final String SIDECAR_FILENAME = "svn-to-git.map";
+
+	private static final int SIDECAR_VERSION = 1;
+
 	private final String repositoryDirectory;
 
 	private static final Pattern svnIdMatcher = Pattern
@@ -54,23 +91,157 @@ public class SvnToGitMapper {
 		this.repositoryDirectory = repositoryDirectory;
 	}
 
+	private void addMapping(final BiMap<Integer, String> mappings,
+			final RevCommit commit) {
+		final String message = commit.getFullMessage();
+		if (!message.contains("git-svn-id")) {
+			return;
+		}
+		final Matcher matcher = svnIdMatcher.matcher(message);
+		matcher.find();
+		mappings.put(Integer.parseInt(matcher.group(1)), commit.name());
+	}
+
+	/**
+	 * Add the mappings of the commits reachable from head but not from the
+	 * previous head.
+	 *
+	 * @return false if the previous head is not an ancestor of head, so that
+	 *         the map cannot be updated incrementally
+	 */
+	private boolean addNewCommits(final Repository repository,
+			final ObjectId previousHead, final ObjectId head,
+			final BiMap<Integer, String> mappings) throws IOException {
+		try (RevWalk walk = new RevWalk(repository)) {
+			final RevCommit headCommit = walk.parseCommit(head);
+			final RevCommit previousHeadCommit;
+			try {
+				previousHeadCommit = walk.parseCommit(previousHead);
+			} catch (final MissingObjectException e) {
+				return false;
+			}
+			if (!walk.isMergedInto(previousHeadCommit, headCommit)) {
+				return false;
+			}
+			walk.reset();
+			walk.sort(RevSort.TOPO);
+			walk.sort(RevSort.REVERSE, true);
+			walk.markStart(headCommit);
+			walk.markUninteresting(previousHeadCommit);
+			for (final RevCommit commit : walk) {
+				addMapping(mappings, commit);
+			}
+		}
+		return true;
+	}
+
 	public BiMap<Integer, String> mapSvnToGit() throws IOException,
 			NoWorkTreeException, NoHeadException, GitAPIException {
-		final BiMap<Integer, String> mappings = HashBiMap.create();
 		final Git repository = GitCommitUtils
 				.getGitRepository(repositoryDirectory);
+		final ObjectId head = repository.getRepository().resolve(
+				Constants.HEAD);
+		if (!PERSIST_MAP || head == null) {
+			return scanAllCommits(repository);
+		}
 
-		for (final RevCommit commit : GitCommitUtils
-				.getAllCommitsTopological(repository)) {
-			final String message = commit.getFullMessage();
-			if (!message.contains("git-svn-id")) {
-				continue;
+		final File sidecar = new File(repository.getRepository()
+				.getDirectory(), SIDECAR_FILENAME);
+		final BiMap<Integer, String> mappings = HashBiMap.create();
+		final ObjectId previousHead = readSidecar(sidecar, mappings);
+		if (head.equals(previousHead)) {
+			return mappings;
+		}
+
+		final BiMap<Integer, String> updatedMappings;
+		if (previousHead != null
+				&& addNewCommits(repository.getRepository(), previousHead,
+						head, mappings)) {
+			LOGGER.info("Updated SVN revision map from "
+					+ previousHead.name() + " to " + head.name());
+			updatedMappings = mappings;
+		} else {
+			updatedMappings = scanAllCommits(repository);
+		}
+		writeSidecar(sidecar, head, updatedMappings);
+		return updatedMappings;
+	}
+
+	/**
+	 * Read the sidecar file into the mappings.
+	 *
+	 * @return the head the sidecar was written for or null if there is no
+	 *         valid sidecar
+	 */
+	private ObjectId readSidecar(final File sidecar,
+			final BiMap<Integer, String> mappings) {
+		if (!sidecar.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(sidecar)))) {
+			if (in.readInt() != SIDECAR_VERSION) {
+				return null;
+			}
+			final byte[] rawId = new byte[Constants.OBJECT_ID_LENGTH];
+			in.readFully(rawId);
+			final ObjectId head = ObjectId.fromRaw(rawId);
+			final int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				final int revision = in.readInt();
+				in.readFully(rawId);
+				mappings.put(revision, ObjectId.fromRaw(rawId).name());
 			}
-			final Matcher matcher = svnIdMatcher.matcher(message);
-			matcher.find();
-			mappings.put(Integer.parseInt(matcher.group(1)), commit.name());
+			return head;
+		} catch (final IOException | IllegalArgumentException e) {
+			LOGGER.warning("Ignoring SVN revision map "
+					+ sidecar.getAbsolutePath() + " "
+					+ ExceptionUtils.getFullStackTrace(e));
+			mappings.clear();
+			return null;
 		}
+	}
 
+	private BiMap<Integer, String> scanAllCommits(final Git repository)
+			throws NoWorkTreeException, NoHeadException, IOException,
+			GitAPIException {
+		final BiMap<Integer, String> mappings = HashBiMap.create();
+		for (final RevCommit commit : GitCommitUtils
+				.getAllCommitsTopological(repository)) {
+			addMapping(mappings, commit);
+		}
 		return mappings;
 	}
+
+	/**
+	 * Write the mappings as the version, the raw head id, the number of
+	 * mappings and then each revision followed by the raw commit id. The file
+	 * is written to a temporary file and atomically moved.
+	 */
+	private void writeSidecar(final File sidecar, final ObjectId head,
+			final BiMap<Integer, String> mappings) {
+		final File tmp = new File(sidecar.getAbsolutePath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)))) {
+				final byte[] rawId = new byte[Constants.OBJECT_ID_LENGTH];
+				out.writeInt(SIDECAR_VERSION);
+				head.copyRawTo(rawId, 0);
+				out.write(rawId);
+				out.writeInt(mappings.size());
+				for (final Entry<Integer, String> mapping : mappings.entrySet()) {
+					out.writeInt(mapping.getKey());
+					ObjectId.fromString(mapping.getValue()).copyRawTo(rawId, 0);
+					out.write(rawId);
+				}
+			}
+			Files.move(tmp.toPath(), sidecar.toPath(),
+					StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} catch (final IOException e) {
+			LOGGER.warning("Failed to persist the SVN revision map "
+					+ ExceptionUtils.getFullStackTrace(e));
+			tmp.delete();
+		}
+	}
 }
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package renaming.history;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A thread-safe, append-only table assigning a dense int id to each distinct
+ * string, so that frequently repeated strings (e.g. commit SHAs, paths and
+ * types) are stored once and compared as ints.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class SymbolTable {
+
+	private final Map<String, Integer> ids = Maps.newConcurrentMap();
+
+	private final List<String> symbols = Lists.newArrayList();
+
+	/**
+	 * Return the id of the symbol, adding it to the table if needed.
+	 *
+	 * @param symbol
+	 * @return
+	 */
+	public int getId(final String symbol) {
+		final Integer id = ids.get(symbol);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			final Integer existingId = ids.get(symbol);
+			if (existingId != null) {
+				return existingId;
+			}
+			final int newId = symbols.size();
+			symbols.add(symbol);
+			ids.put(symbol, newId);
+			return newId;
+		}
+	}
+
+	public synchronized String getSymbol(final int id) {
+		return symbols.get(id);
+	}
+
+	public synchronized int size() {
+		return symbols.size();
+	}
+
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A monotonically increasing count that can be updated concurrently.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class Counter implements IMetric {
+
+	private final LongAdder count = new LongAdder();
+
+	Counter() {
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(final long value) {
+		if (Metrics.ENABLED) {
+			count.add(value);
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+	}
+
+	@Override
+	public void writeJson(final JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("type").value("counter");
+		json.name("count").value(getCount());
+		json.endObject();
+	}
+}
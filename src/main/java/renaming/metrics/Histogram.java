@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A histogram of non-negative long values with power-of-two buckets. Updates
+ * are lock-free; quantiles are approximate, to within a factor of two.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class Histogram implements IMetric {
+
+	private static final double[] QUANTILES = { .5, .9, .99 };
+
+	/**
+	 * Bucket i holds the values v with 2^(i-1) <= v < 2^i. Bucket 0 holds 0.
+	 */
+	private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator min = new LongAccumulator(Math::min,
+			Long.MAX_VALUE);
+
+	private final LongAccumulator max = new LongAccumulator(Math::max,
+			Long.MIN_VALUE);
+
+	Histogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMax() {
+		return getCount() == 0 ? 0 : max.get();
+	}
+
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? 0 : ((double) sum.sum()) / n;
+	}
+
+	public long getMin() {
+		return getCount() == 0 ? 0 : min.get();
+	}
+
+	/**
+	 * Return an upper bound of the value at the given quantile.
+	 *
+	 * @param quantile
+	 *            in [0, 1]
+	 * @return
+	 */
+	public long getQuantile(final double quantile) {
+		final long n = getCount();
+		if (n == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(quantile * n);
+		long seen = 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i].sum();
+			if (seen >= rank) {
+				return i == 0 ? 0 : Math.min(getMax(), (1L << i) - 1);
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public void reset() {
+		for (final LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		count.reset();
+		sum.reset();
+		min.reset();
+		max.reset();
+	}
+
+	/**
+	 * Record a value. Negative values are recorded as 0.
+	 *
+	 * @param value
+	 */
+	public void update(final long value) {
+		if (!Metrics.ENABLED) {
+			return;
+		}
+		final long v = Math.max(0, value);
+		buckets[Long.SIZE - Long.numberOfLeadingZeros(v)].increment();
+		count.increment();
+		sum.add(v);
+		min.accumulate(v);
+		max.accumulate(v);
+	}
+
+	@Override
+	public void writeJson(final JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("type").value("histogram");
+		writeFields(json);
+		json.endObject();
+	}
+
+	void writeFields(final JsonWriter json) throws IOException {
+		json.name("count").value(getCount());
+		json.name("sum").value(sum.sum());
+		json.name("min").value(getMin());
+		json.name("max").value(getMax());
+		json.name("mean").value(getMean());
+		for (final double quantile : QUANTILES) {
+			json.name("p" + (int) Math.round(quantile * 100)).value(
+					getQuantile(quantile));
+		}
+	}
+}
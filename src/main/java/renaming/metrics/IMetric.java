@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A metric that can be dumped as JSON.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public interface IMetric {
+
+	/**
+	 * Clear all recorded values.
+	 */
+	void reset();
+
+	/**
+	 * Write the current value of the metric as a JSON object.
+	 *
+	 * @param json
+	 * @throws IOException
+	 */
+	void writeJson(JsonWriter json) throws IOException;
+}
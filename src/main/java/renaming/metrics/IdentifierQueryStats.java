@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import codemining.languagetools.Scope;
+
+/**
+ * Per-identifier statistics of renaming queries: the latency, the size of the
+ * candidate set and the number of n-gram contexts of each query, along with
+ * the slowest queries.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class IdentifierQueryStats {
+
+	private final Timer latency;
+
+	private final Histogram candidates;
+
+	private final Histogram contexts;
+
+	private final SlowQueryLog slowQueries;
+
+	/**
+	 * @param prefix
+	 *            the prefix of the names of the metrics
+	 */
+	public IdentifierQueryStats(final String prefix) {
+		latency = Metrics.timer(prefix + ".latency");
+		candidates = Metrics.histogram(prefix + ".candidates");
+		contexts = Metrics.histogram(prefix + ".contexts");
+		slowQueries = Metrics.slowQueryLog(prefix + ".slowest");
+	}
+
+	public SlowQueryLog getSlowQueries() {
+		return slowQueries;
+	}
+
+	/**
+	 * Record a single query.
+	 *
+	 * @param nanos
+	 * @param identifier
+	 * @param scope
+	 * @param nCandidates
+	 *            the number of alternatives that were scored
+	 * @param nContexts
+	 *            the number of n-gram contexts the identifier appears in
+	 */
+	public void record(final long nanos, final String identifier,
+			final Scope scope, final int nCandidates, final int nContexts) {
+		latency.update(nanos);
+		candidates.update(nCandidates);
+		contexts.update(nContexts);
+		slowQueries.offer(nanos, identifier, scope, nCandidates, nContexts);
+	}
+}
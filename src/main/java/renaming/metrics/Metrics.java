@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import codemining.util.SettingsLoader;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A process-wide registry of named metrics. Metrics are created on first use
+ * and can be dumped as JSON at any point. If the Metrics.jsonFile setting is
+ * set, the metrics are written to that file when the JVM exits. The metrics
+ * are also exposed over JMX, so that they can be queried in long running
+ * processes.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class Metrics {
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class
+			.getName());
+
+	public static final boolean ENABLED = SettingsLoader.getBooleanSetting(
+			"Metrics.enabled", true);
+
+	public static final String JSON_FILE = SettingsLoader.getStringSetting(
+			"Metrics.jsonFile", "");
+
+	/**
+	 * The number of queries kept by each slow query log.
+	 */
+	public static final int SLOW_QUERY_LOG_SIZE = (int) SettingsLoader
+			.getNumericSetting("Metrics.slowQueries", 20);
+
+	public static final String MBEAN_NAME = "renaming:type=Metrics";
+
+	private static final ConcurrentMap<String, IMetric> METRICS = Maps
+			.newConcurrentMap();
+
+	static {
+		if (ENABLED) {
+			registerMBean();
+			if (!JSON_FILE.isEmpty()) {
+				Runtime.getRuntime().addShutdownHook(
+						new Thread(() -> writeJsonFile(new File(JSON_FILE))));
+			}
+		}
+	}
+
+	public static Counter counter(final String name) {
+		return get(name, Counter.class, Counter::new);
+	}
+
+	private static <T extends IMetric> T get(final String name,
+			final Class<T> metricClass, final Supplier<T> factory) {
+		final IMetric metric = METRICS.computeIfAbsent(name,
+				n -> factory.get());
+		if (!metricClass.isInstance(metric)) {
+			throw new IllegalArgumentException("Metric " + name
+					+ " is already registered as a "
+					+ metric.getClass().getSimpleName());
+		}
+		return metricClass.cast(metric);
+	}
+
+	/**
+	 * Return a snapshot of all metrics, ordered by name.
+	 *
+	 * @return
+	 */
+	public static SortedMap<String, IMetric> getAll() {
+		return ImmutableSortedMap.copyOf(METRICS);
+	}
+
+	public static Histogram histogram(final String name) {
+		return get(name, Histogram.class, Histogram::new);
+	}
+
+	private static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new MetricsMXBean() {
+						@Override
+						public String getMetricsJson() {
+							return toJson();
+						}
+
+						@Override
+						public void reset() {
+							Metrics.reset();
+						}
+					}, new ObjectName(MBEAN_NAME));
+		} catch (final Exception e) {
+			LOGGER.warning("Failed to register metrics MBean "
+					+ ExceptionUtils.getFullStackTrace(e));
+		}
+	}
+
+	/**
+	 * Clear the values of all metrics.
+	 */
+	public static void reset() {
+		for (final IMetric metric : METRICS.values()) {
+			metric.reset();
+		}
+	}
+
+	public static SlowQueryLog slowQueryLog(final String name) {
+		return get(name, SlowQueryLog.class,
+				() -> new SlowQueryLog(SLOW_QUERY_LOG_SIZE));
+	}
+
+	public static Timer timer(final String name) {
+		return get(name, Timer.class, Timer::new);
+	}
+
+	public static String toJson() {
+		final StringWriter sw = new StringWriter();
+		try {
+			writeJson(sw);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e); // Cannot happen
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Write all metrics as a single JSON object, keyed by their name.
+	 *
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void writeJson(final Writer writer) throws IOException {
+		final JsonWriter json = new JsonWriter(writer);
+		json.setIndent("  ");
+		json.beginObject();
+		for (final Map.Entry<String, IMetric> metric : getAll().entrySet()) {
+			json.name(metric.getKey());
+			metric.getValue().writeJson(json);
+		}
+		json.endObject();
+		json.flush();
+	}
+
+	public static void writeJsonFile(final File file) {
+		try {
+			FileUtils.writeStringToFile(file, toJson());
+		} catch (final IOException e) {
+			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+		}
+	}
+
+	private Metrics() {
+	}
+}
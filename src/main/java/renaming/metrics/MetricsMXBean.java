@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+/**
+ * Exposes the metrics of a running process over JMX, e.g. to jconsole.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return all metrics as a JSON object
+	 */
+	String getMetricsJson();
+
+	/**
+	 * Clear all metrics.
+	 */
+	void reset();
+}
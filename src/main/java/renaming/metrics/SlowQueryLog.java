@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.StringUtils;
+
+import codemining.languagetools.Scope;
+
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Keep the K slowest identifier queries, along with their scope, so that
+ * pathological cases can be found in production runs.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class SlowQueryLog implements IMetric {
+
+	/**
+	 * Struct class for a single query.
+	 *
+	 */
+	public static final class Query implements Comparable<Query> {
+		public final long nanos;
+
+		public final String identifier;
+
+		public final Scope scope;
+
+		public final int nCandidates;
+
+		public final int nContexts;
+
+		Query(final long nanos, final String identifier, final Scope scope,
+				final int nCandidates, final int nContexts) {
+			this.nanos = nanos;
+			this.identifier = identifier;
+			this.scope = scope;
+			this.nCandidates = nCandidates;
+			this.nContexts = nContexts;
+		}
+
+		@Override
+		public int compareTo(final Query other) {
+			return ComparisonChain.start().compare(nanos, other.nanos)
+					.compare(identifier, other.identifier).result();
+		}
+
+		@Override
+		public String toString() {
+			return identifier + " " + nanos / 1000000. + "ms candidates:"
+					+ nCandidates + " contexts:" + nContexts + " scope:"
+					+ getScopeDescription();
+		}
+
+		private String getScopeDescription() {
+			if (scope == null) {
+				return "";
+			}
+			return scope.scopeType + " " + scope.type + " "
+					+ StringUtils.abbreviate(scope.code, MAX_CODE_LENGTH);
+		}
+
+		void writeJson(final JsonWriter json) throws IOException {
+			json.beginObject();
+			json.name("identifier").value(identifier);
+			json.name("nanos").value(nanos);
+			json.name("candidates").value(nCandidates);
+			json.name("contexts").value(nContexts);
+			if (scope != null) {
+				json.name("scopeType").value(scope.scopeType.toString());
+				json.name("scopeName").value(scope.type);
+				json.name("code").value(
+						StringUtils.abbreviate(scope.code, MAX_CODE_LENGTH));
+			}
+			json.endObject();
+		}
+	}
+
+	/**
+	 * The maximum number of characters of the scope's code that are kept.
+	 */
+	private static final int MAX_CODE_LENGTH = 500;
+
+	private final int capacity;
+
+	/**
+	 * A min-heap of the slowest queries seen so far.
+	 */
+	private final PriorityQueue<Query> slowest = new PriorityQueue<Query>();
+
+	/**
+	 * The latency under which a query cannot enter a full log. Read without
+	 * locking, so that fast queries never contend.
+	 */
+	private volatile long threshold = Long.MIN_VALUE;
+
+	SlowQueryLog(final int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Return the slowest queries, slowest first.
+	 *
+	 * @return
+	 */
+	public synchronized List<Query> getSlowest() {
+		return Ordering.natural().reverse().sortedCopy(slowest);
+	}
+
+	/**
+	 * Log the slowest queries.
+	 *
+	 * @param logger
+	 */
+	public void log(final Logger logger) {
+		final List<Query> queries = getSlowest();
+		if (queries.isEmpty()) {
+			return;
+		}
+		final StringBuffer buf = new StringBuffer();
+		buf.append("Slowest ").append(queries.size()).append(" queries:\n");
+		for (final Query query : queries) {
+			buf.append(query).append('\n');
+		}
+		logger.info(buf.toString());
+	}
+
+	/**
+	 * Record a query, keeping it only if it is among the slowest.
+	 */
+	public void offer(final long nanos, final String identifier,
+			final Scope scope, final int nCandidates, final int nContexts) {
+		if (!Metrics.ENABLED || capacity <= 0 || nanos <= threshold) {
+			return;
+		}
+		synchronized (this) {
+			slowest.add(new Query(nanos, identifier, scope, nCandidates,
+					nContexts));
+			if (slowest.size() > capacity) {
+				slowest.poll();
+			}
+			if (slowest.size() == capacity) {
+				threshold = slowest.peek().nanos;
+			}
+		}
+	}
+
+	@Override
+	public synchronized void reset() {
+		slowest.clear();
+		threshold = Long.MIN_VALUE;
+	}
+
+	@Override
+	public void writeJson(final JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("type").value("slowQueries");
+		json.name("queries").beginArray();
+		for (final Query query : getSlowest()) {
+			query.writeJson(json);
+		}
+		json.endArray();
+		json.endObject();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package renaming.metrics;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A histogram of durations, in nanoseconds.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public final class Timer implements IMetric {
+
+	/**
+	 * A running measurement. Stopped when closed, so that it can be used in a
+	 * try-with-resources block.
+	 *
+	 */
+	public final class Context implements AutoCloseable {
+		private final boolean enabled;
+
+		private final long start;
+
+		private Context(final boolean enabled) {
+			this.enabled = enabled;
+			start = enabled ? System.nanoTime() : 0;
+		}
+
+		@Override
+		public void close() {
+			stop();
+		}
+
+		/**
+		 * Record the time since this context was started.
+		 *
+		 * @return the elapsed nanoseconds
+		 */
+		public long stop() {
+			if (!enabled) {
+				return 0;
+			}
+			final long elapsed = System.nanoTime() - start;
+			durations.update(elapsed);
+			return elapsed;
+		}
+	}
+
+	private final Histogram durations = new Histogram();
+
+	Timer() {
+	}
+
+	public Histogram getDurations() {
+		return durations;
+	}
+
+	@Override
+	public void reset() {
+		durations.reset();
+	}
+
+	/**
+	 * Start a measurement.
+	 *
+	 * @return
+	 */
+	public Context time() {
+		return new Context(Metrics.ENABLED);
+	}
+
+	public void update(final long nanos) {
+		durations.update(nanos);
+	}
+
+	@Override
+	public void writeJson(final JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("type").value("timer");
+		json.name("unit").value("ns");
+		durations.writeFields(json);
+		json.endObject();
+	}
+}
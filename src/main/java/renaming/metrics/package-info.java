@@ -0,0 +1,6 @@
+/**
+ * Lightweight counters, timers and histograms for instrumenting the training
+ * and scoring pipeline.
+ *
+ */
+package renaming.metrics;
@@ -4,12 +4,16 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import renaming.metrics.Counter;
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import codemining.languagetools.ITokenizer;
 import codemining.languagetools.ITokenizer.FullToken;
 import codemining.lm.ILanguageModel;
@@ -48,42 +52,17 @@ public class IdentifierNeighborsNGramLM extends AbstractNGramLM {
 			tokenizer = tokenizerModule;
 		}
 
-		public void addRelevantNGrams(final List<FullToken> lst) {
-
-			final SortedSet<Integer> identifierPositions = new TreeSet<Integer>();
-			final List<String> sentence = Lists.newArrayList();
-
-			for (int i = 0; i < lst.size(); i++) {
-				final FullToken fullToken = lst.get(i);
-				sentence.add(fullToken.token);
-				if (fullToken.tokenType.equals(tokenizer.getIdentifierType())) {
-					identifierPositions.add(i);
-				}
-			}
-
-			// Construct the rest
-			for (int i = 0; i < sentence.size(); i++) {
-				// Filter n-grams with no identifiers
-				if (identifierPositions.subSet(i - getN() + 1, i + 1).isEmpty()) {
-					continue;
-				}
-				final NGram<String> ngram = NGram.constructNgramAt(i, sentence,
-						getN());
-				if (ngram.size() > 1) {
-					addNgram(ngram, false);
-				}
-			}
-
-		}
-
 		@Override
 		public void run() {
 			LOGGER.finer("Reading file " + codeFile.getAbsolutePath());
 			try {
+				final Timer.Context tokenizationTime = TOKENIZATION_TIMER
+						.time();
 				final List<FullToken> tokens = tokenizer
 						.getTokenListFromCode(codeFile);
+				tokenizationTime.stop();
 
-				addRelevantNGrams(tokens);
+				addRelevantNGrams(tokens, tokenizer);
 			} catch (final IOException e) {
 				LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 			}
@@ -95,12 +74,61 @@ public class IdentifierNeighborsNGramLM extends AbstractNGramLM {
 
 	private static final long serialVersionUID = 2765488075402402353L;
 
+	private static final Timer TOKENIZATION_TIMER = Metrics
+			.timer("tokenization");
+
+	private static final Timer VOCABULARY_TIMER = Metrics
+			.timer("training.vocabularyBuilding");
+
+	private static final Timer NGRAM_COUNTING_TIMER = Metrics
+			.timer("training.ngramCounting");
+
+	private static final Counter NGRAM_COUNTER = Metrics
+			.counter("training.ngrams");
+
 	public static final int CLEAN_NGRAM_THRESHOLD = (int) SettingsLoader
 			.getNumericSetting("CleanNgramCountThreshold", 1);
 
 	public static final int CLEAN_VOCABULARY_THRESHOLD = (int) SettingsLoader
 			.getNumericSetting("CleanVocabularyThreshold", 1);
 
+	/**
+	 * Return the n-grams of the token list that contain at least one
+	 * identifier. These are the n-grams that are added to the model when
+	 * training on the tokens.
+	 * 
+	 * @param lst
+	 * @param tokenizer
+	 * @param n
+	 * @return
+	 */
+	public static List<NGram<String>> getRelevantNGrams(
+			final List<FullToken> lst, final ITokenizer tokenizer, final int n) {
+		final SortedSet<Integer> identifierPositions = new TreeSet<Integer>();
+		final List<String> sentence = Lists.newArrayList();
+
+		for (int i = 0; i < lst.size(); i++) {
+			final FullToken fullToken = lst.get(i);
+			sentence.add(fullToken.token);
+			if (fullToken.tokenType.equals(tokenizer.getIdentifierType())) {
+				identifierPositions.add(i);
+			}
+		}
+
+		final List<NGram<String>> ngrams = Lists.newArrayList();
+		for (int i = 0; i < sentence.size(); i++) {
+			// Filter n-grams with no identifiers
+			if (identifierPositions.subSet(i - n + 1, i + 1).isEmpty()) {
+				continue;
+			}
+			final NGram<String> ngram = NGram.constructNgramAt(i, sentence, n);
+			if (ngram.size() > 1) {
+				ngrams.add(ngram);
+			}
+		}
+		return ngrams;
+	}
+
 	/**
 	 * Constructor.
 	 * 
@@ -112,6 +140,16 @@ public class IdentifierNeighborsNGramLM extends AbstractNGramLM {
 		super(size, tokenizerModule);
 	}
 
+	private void addRelevantNGrams(final List<FullToken> lst,
+			final ITokenizer tokenizer) {
+		final List<NGram<String>> ngrams = getRelevantNGrams(lst, tokenizer,
+				getN());
+		for (final NGram<String> ngram : ngrams) {
+			addNgram(ngram, false);
+		}
+		NGRAM_COUNTER.add(ngrams.size());
+	}
+
 	/**
 	 * Given a sentence (i.e. a list of strings) add all appropriate ngrams.
 	 * 
@@ -197,11 +235,37 @@ public class IdentifierNeighborsNGramLM extends AbstractNGramLM {
 	@Override
 	public void trainModel(final Collection<File> files) throws IOException {
 		LOGGER.info("Building vocabulary...");
+		final Timer.Context vocabularyTime = VOCABULARY_TIMER.time();
 		trie.buildVocabularySymbols(TokenVocabularyBuilder.buildVocabulary(
 				files, getTokenizer(), CLEAN_VOCABULARY_THRESHOLD));
+		vocabularyTime.stop();
 
 		LOGGER.info("Vocabulary Built. Counting n-grams");
+		final Timer.Context countingTime = NGRAM_COUNTING_TIMER.time();
 		trainModel(files, false, false);
+		countingTime.stop();
+	}
+
+	/**
+	 * Train the model on files that have already been tokenized, so that a
+	 * single tokenization of the corpus can be shared with other models.
+	 * 
+	 * @param vocabulary
+	 *            the vocabulary of the model
+	 * @param tokenizedFiles
+	 *            the tokens of each training file
+	 */
+	public void trainModel(final Set<String> vocabulary,
+			final Collection<List<FullToken>> tokenizedFiles) {
+		trie.buildVocabularySymbols(vocabulary);
+
+		final Timer.Context countingTime = NGRAM_COUNTING_TIMER.time();
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
+		for (final List<FullToken> tokens : tokenizedFiles) {
+			threadPool.pushTask(() -> addRelevantNGrams(tokens, getTokenizer()));
+		}
+		threadPool.waitForTermination();
+		countingTime.stop();
 	}
 
 	/**
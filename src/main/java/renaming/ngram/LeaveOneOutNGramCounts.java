@@ -0,0 +1,219 @@
+/**
+ *
+ */
+package renaming.ngram;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.SerializationUtils;
+
+import codemining.lm.ngram.AbstractNGramLM;
+import codemining.lm.ngram.NGram;
+import codemining.util.SettingsLoader;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Leave-one-out support for an n-gram LM that has been trained once on the
+ * whole corpus, so that evaluators do not need to retrain a model per
+ * held-out file.
+ *
+ * The smoothers read the trie counts directly, so the held-out counts cannot
+ * be overlaid on a shared trie. Instead, each task runs on a private replica
+ * of the trained model, from which the n-gram counts of the held-out
+ * documents are subtracted for the duration of the task and added back
+ * afterwards. The trained model itself is never modified. Replicas are
+ * cloned lazily, up to LeaveOneOutNGramCounts.maxReplicas, and reused across
+ * tasks, so that up to that many held-out queries run concurrently. Each
+ * replica is a full copy of the model, so the default is a single replica:
+ * memory stays at two models and the held-out queries are serialized.
+ * Increase the setting to trade memory for parallelism. A replica whose
+ * counts could not be restored is discarded.
+ *
+ * Vocabulary symbols are not removed, so tokens that appear only in the
+ * held-out document are still known to the model.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class LeaveOneOutNGramCounts {
+
+	/**
+	 * A task that runs on a model that excludes some held-out documents.
+	 *
+	 * @param <M>
+	 *            the type of the held-out model
+	 * @param <T>
+	 *            the type of the result
+	 */
+	public interface HeldOutTask<M, T> {
+		T call(M heldOutModel) throws Exception;
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(LeaveOneOutNGramCounts.class.getName());
+
+	/**
+	 * The default maximum number of replicas. Each replica is a full copy of
+	 * the trained model.
+	 */
+	public static final int MAX_REPLICAS = (int) SettingsLoader
+			.getNumericSetting("LeaveOneOutNGramCounts.maxReplicas", 1);
+
+	/**
+	 * Return the n-grams that an NGramLM adds to its trie when training on
+	 * the given sentence.
+	 *
+	 * @param sentence
+	 * @param n
+	 * @return
+	 */
+	public static List<NGram<String>> getSentenceNGrams(
+			final List<String> sentence, final int n) {
+		final List<NGram<String>> ngrams = Lists.newArrayList();
+		for (int i = n - 1; i < sentence.size(); ++i) {
+			final NGram<String> ngram = NGram.constructNgramAt(i, sentence, n);
+			if (ngram.size() > 1) {
+				ngrams.add(ngram);
+			}
+		}
+
+		// Construct for the last parts
+		for (int i = n - 1; i > 0; i--) {
+			ngrams.add(NGram.constructNgramAt(sentence.size() - 1, sentence, i));
+		}
+		return ngrams;
+	}
+
+	/**
+	 * The model trained on the full corpus. It is only read (and cloned).
+	 */
+	private final AbstractNGramLM ngramLM;
+
+	private final int maxReplicas;
+
+	/**
+	 * The replicas that are not used by any task. These have the same counts
+	 * as ngramLM.
+	 */
+	private final BlockingQueue<AbstractNGramLM> idleReplicas = new LinkedBlockingQueue<AbstractNGramLM>();
+
+	private final AtomicInteger nReplicas = new AtomicInteger(0);
+
+	/**
+	 * @param trainedModel
+	 *            the model trained on the full corpus
+	 */
+	public LeaveOneOutNGramCounts(final AbstractNGramLM trainedModel) {
+		this(trainedModel, MAX_REPLICAS);
+	}
+
+	/**
+	 * @param trainedModel
+	 *            the model trained on the full corpus
+	 * @param maxReplicas
+	 *            the maximum number of replicas of the model, i.e. the
+	 *            maximum number of concurrent tasks
+	 */
+	public LeaveOneOutNGramCounts(final AbstractNGramLM trainedModel,
+			final int maxReplicas) {
+		checkArgument(maxReplicas > 0);
+		ngramLM = checkNotNull(trainedModel);
+		this.maxReplicas = maxReplicas;
+		LOGGER.info("Using up to " + maxReplicas
+				+ " replica(s) of the model for leave-one-out queries");
+	}
+
+	/**
+	 * Return an idle replica, cloning a new one if all are in use and there
+	 * are fewer than maxReplicas. Otherwise, wait for a replica to become
+	 * idle.
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private AbstractNGramLM acquireReplica() throws InterruptedException {
+		while (true) {
+			AbstractNGramLM replica = idleReplicas.poll();
+			if (replica != null) {
+				return replica;
+			}
+			final int currentReplicas = nReplicas.get();
+			if (currentReplicas < maxReplicas) {
+				if (nReplicas.compareAndSet(currentReplicas,
+						currentReplicas + 1)) {
+					try {
+						return (AbstractNGramLM) SerializationUtils
+								.clone((Serializable) ngramLM);
+					} catch (final RuntimeException e) {
+						nReplicas.decrementAndGet();
+						throw e;
+					}
+				}
+				continue;
+			}
+			// Poll with a timeout, in case a replica is discarded meanwhile
+			replica = idleReplicas.poll(1, TimeUnit.SECONDS);
+			if (replica != null) {
+				return replica;
+			}
+		}
+	}
+
+	/**
+	 * Run the task on a model that does not contain the given n-gram counts.
+	 * The task must not keep a reference to the model after it returns.
+	 *
+	 * @param excludedNGrams
+	 *            the n-grams (as added during training) of the held-out
+	 *            documents
+	 * @param task
+	 * @return the result of the task
+	 * @throws Exception
+	 *             if the task throws
+	 */
+	public <T> T callWithout(final Collection<NGram<String>> excludedNGrams,
+			final HeldOutTask<AbstractNGramLM, T> task) throws Exception {
+		final AbstractNGramLM replica = acquireReplica();
+		boolean restored = false;
+		try {
+			for (final NGram<String> ngram : excludedNGrams) {
+				replica.getTrie().remove(ngram);
+			}
+			try {
+				return task.call(replica);
+			} finally {
+				for (final NGram<String> ngram : excludedNGrams) {
+					replica.getTrie().add(ngram, false);
+				}
+				restored = true;
+			}
+		} finally {
+			if (restored) {
+				idleReplicas.add(replica);
+			} else {
+				nReplicas.decrementAndGet();
+				LOGGER.warning("Discarding a replica whose counts could not be restored");
+			}
+		}
+	}
+
+	/**
+	 * Return the model trained on the full corpus. This must not be
+	 * modified.
+	 */
+	public AbstractNGramLM getLM() {
+		return ngramLM;
+	}
+
+}
@@ -14,6 +14,9 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import renaming.metrics.Histogram;
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import codemining.languagetools.Scope;
 import codemining.languagetools.bindings.TokenNameBinding;
 import codemining.lm.ngram.AbstractNGramLM;
@@ -40,6 +43,21 @@ public abstract class AbstractIdentifierRenamings implements
 	private static final Logger LOGGER = Logger
 			.getLogger(AbstractIdentifierRenamings.class.getName());
 
+	private static final Timer TOKENIZATION_TIMER = Metrics
+			.timer("tokenization");
+
+	private static final Timer ALTERNATIVES_TIMER = Metrics
+			.timer("renaming.getAlternativeNames");
+
+	private static final Histogram ALTERNATIVES_SIZE = Metrics
+			.histogram("renaming.getAlternativeNames.size");
+
+	private static final Timer SCORING_TIMER = Metrics
+			.timer("renaming.calculateScores");
+
+	private static final Timer PRIORS_TIMER = Metrics
+			.timer("renaming.addScopePriors");
+
 	protected AbstractNGramLM ngramLM;
 
 	protected double addScopePriors(final String identifierName,
@@ -60,9 +78,20 @@ public abstract class AbstractIdentifierRenamings implements
 	public SortedSet<Renaming> calculateScores(
 			final Multiset<NGram<String>> ngrams,
 			final Set<String> alternatives, final Scope scope) {
+		final Timer.Context scoringTime = SCORING_TIMER.time();
 		final SortedSet<Renaming> scoreMap = Sets.newTreeSet();
 
-		for (final String identifierName : alternatives) {
+		// Time the priors once per query, rather than once per alternative
+		final List<String> names = Lists.newArrayList(alternatives);
+		final double[] priors = new double[names.size()];
+		final Timer.Context priorTime = PRIORS_TIMER.time();
+		for (int i = 0; i < priors.length; i++) {
+			priors[i] = addScopePriors(names.get(i), scope);
+		}
+		priorTime.stop();
+
+		for (int i = 0; i < priors.length; i++) {
+			final String identifierName = names.get(i);
 			double score = 0;
 			for (final Entry<NGram<String>> ngram : ngrams.entrySet()) {
 				try {
@@ -74,11 +103,11 @@ public abstract class AbstractIdentifierRenamings implements
 					LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 				}
 			}
-			scoreMap.add(new Renaming(identifierName, (addScopePriors(
-					identifierName, scope) - score) / ngrams.size(), ngrams
-					.size() / ngramLM.getN(), scope));
+			scoreMap.add(new Renaming(identifierName, (priors[i] - score)
+					/ ngrams.size(), ngrams.size() / ngramLM.getN(), scope));
 		}
 
+		scoringTime.stop();
 		return scoreMap;
 	}
 
@@ -90,6 +119,7 @@ public abstract class AbstractIdentifierRenamings implements
 	public Multiset<String> getAlternativeNames(
 			final Multiset<NGram<String>> relevantNgrams,
 			final String currentName) {
+		final Timer.Context alternativesTime = ALTERNATIVES_TIMER.time();
 		// Get all alternative namings
 		final Multiset<String> nameAlternatives = ngramLM
 				.getAlternativeNamings(relevantNgrams, WILDCARD_TOKEN);
@@ -109,6 +139,8 @@ public abstract class AbstractIdentifierRenamings implements
 			seen++;
 		}
 		toKeep.add(AbstractNGramLM.UNK_SYMBOL);
+		alternativesTime.stop();
+		ALTERNATIVES_SIZE.update(toKeep.elementSet().size());
 		return toKeep;
 	}
 
@@ -191,8 +223,10 @@ public abstract class AbstractIdentifierRenamings implements
 	 */
 	public Multiset<NGram<String>> getSnippetNGrams(final String snippet,
 			final String targetIdentifier) {
+		final Timer.Context tokenizationTime = TOKENIZATION_TIMER.time();
 		final List<String> lst = checkNotNull(ngramLM).getTokenizer()
 				.tokenListFromCode(snippet.toCharArray());
+		tokenizationTime.stop();
 
 		final SortedSet<Integer> identifierPositions = Sets.newTreeSet();
 		final List<String> sentence = Lists.newArrayList();
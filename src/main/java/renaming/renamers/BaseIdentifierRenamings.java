@@ -14,6 +14,8 @@ import java.util.logging.Logger;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import renaming.ngram.IdentifierNeighborsNGramLM;
 import codemining.languagetools.ITokenizer;
 import codemining.lm.ngram.AbstractNGramLM;
@@ -38,6 +40,9 @@ public class BaseIdentifierRenamings extends AbstractIdentifierRenamings {
 	private static final Logger LOGGER = Logger
 			.getLogger(BaseIdentifierRenamings.class.getName());
 
+	private static final Timer SMOOTHING_TIMER = Metrics
+			.timer("training.smoothingConstruction");
+
 	public BaseIdentifierRenamings() {
 		tokenizer = null;
 		smoothedNgramClass = null;
@@ -80,28 +85,38 @@ public class BaseIdentifierRenamings extends AbstractIdentifierRenamings {
 			final AbstractNGramLM dict = new IdentifierNeighborsNGramLM(
 					NGRAM_SIZE, tokenizer);
 			dict.trainModel(trainingFiles);
-
-			final AbstractNGramLM ng = (AbstractNGramLM) checkNotNull(
-					smoothedNgramClass,
-					"no smoother class. n-gram model was probably pre-build and should not be trainable.")
-					.getDeclaredConstructor(AbstractNGramLM.class).newInstance(
-							dict);
-			this.ngramLM = ng;
-
+			this.ngramLM = smoothModel(dict);
 		} catch (final IOException e) {
 			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 		} catch (final IllegalArgumentException e) {
 			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 		} catch (final SecurityException e) {
 			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
-		} catch (final InstantiationException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
-		} catch (final IllegalAccessException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
-		} catch (final InvocationTargetException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
-		} catch (final NoSuchMethodException e) {
-			LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
+		}
+	}
+
+	/**
+	 * Smooth a trained n-gram model with the smoother of the
+	 * ngramSmootherClass setting.
+	 *
+	 * @param trainedModel
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the smoother cannot be constructed
+	 */
+	public AbstractNGramLM smoothModel(final AbstractNGramLM trainedModel) {
+		final Timer.Context smoothingTime = SMOOTHING_TIMER.time();
+		try {
+			return checkNotNull(
+					smoothedNgramClass,
+					"no smoother class. n-gram model was probably pre-build and should not be trainable.")
+					.getDeclaredConstructor(AbstractNGramLM.class).newInstance(
+							trainedModel);
+		} catch (final InstantiationException | IllegalAccessException
+				| InvocationTargetException | NoSuchMethodException e) {
+			throw new IllegalArgumentException(e);
+		} finally {
+			smoothingTime.stop();
 		}
 	}
 
@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package renaming.renamers;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import renaming.ngram.IdentifierNeighborsNGramLM;
+import renaming.ngram.LeaveOneOutNGramCounts;
+import renaming.ngram.LeaveOneOutNGramCounts.HeldOutTask;
+import codemining.languagetools.ITokenizer;
+import codemining.lm.ngram.NGram;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An identifier renamer that is trained once on the whole corpus and can
+ * score any file of the corpus as if it was not part of the training set, by
+ * subtracting the file's n-gram counts from a replica of the model at query
+ * time.
+ *
+ * Only the n-gram counts are held out; the vocabulary is the one built on the
+ * whole corpus. Names that pass the vocabulary threshold only because of the
+ * excluded files are therefore still in the vocabulary of the held-out model,
+ * rather than being mapped to the unknown symbol as they would be in a model
+ * trained without those files.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class LeaveOneOutIdentifierRenamings extends BaseIdentifierRenamings {
+
+	private LeaveOneOutNGramCounts leaveOneOutCounts;
+
+	private final int maxReplicas;
+
+	public LeaveOneOutIdentifierRenamings(final ITokenizer tokenizer) {
+		this(tokenizer, LeaveOneOutNGramCounts.MAX_REPLICAS);
+	}
+
+	/**
+	 * @param tokenizer
+	 * @param maxReplicas
+	 *            the maximum number of replicas of the model, i.e. of
+	 *            concurrent held-out tasks
+	 */
+	public LeaveOneOutIdentifierRenamings(final ITokenizer tokenizer,
+			final int maxReplicas) {
+		super(tokenizer);
+		this.maxReplicas = maxReplicas;
+	}
+
+	/**
+	 * Build the model on the whole corpus. Files of the corpus can later be
+	 * excluded using callWithout().
+	 */
+	@Override
+	public void buildRenamingModel(final Collection<File> trainingFiles) {
+		super.buildRenamingModel(trainingFiles);
+		leaveOneOutCounts = new LeaveOneOutNGramCounts(getLM(), maxReplicas);
+	}
+
+	/**
+	 * Run the task on a renamer whose model does not contain the n-grams of
+	 * the given files. Up to LeaveOneOutNGramCounts.maxReplicas tasks run
+	 * concurrently, each on its own held-out model.
+	 *
+	 * @param excludedFiles
+	 *            files that were part of the training corpus
+	 * @param task
+	 * @return
+	 * @throws Exception
+	 */
+	public <T> T callWithout(final Collection<File> excludedFiles,
+			final HeldOutTask<BaseIdentifierRenamings, T> task)
+			throws Exception {
+		final List<NGram<String>> excludedNGrams = Lists.newArrayList();
+		for (final File file : excludedFiles) {
+			excludedNGrams.addAll(getFileNGrams(file));
+		}
+		return checkNotNull(leaveOneOutCounts, "The model has not been built")
+				.callWithout(excludedNGrams, heldOutModel -> task
+						.call(new BaseIdentifierRenamings(heldOutModel)));
+	}
+
+	/**
+	 * Return the n-grams that the file contributed to the model.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public List<NGram<String>> getFileNGrams(final File file)
+			throws IOException {
+		return IdentifierNeighborsNGramLM.getRelevantNGrams(
+				tokenizer.getTokenListFromCode(file), tokenizer, getLM()
+						.getN());
+	}
+
+}
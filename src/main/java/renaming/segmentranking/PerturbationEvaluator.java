@@ -7,8 +7,10 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedSet;
 import java.util.logging.Logger;
@@ -17,6 +19,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
+import renaming.evaluation.EvaluationCheckpoint;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
 import codemining.java.codeutils.scopes.ScopedIdentifierRenaming;
@@ -39,12 +42,21 @@ import com.google.common.collect.Sets;
  */
 public class PerturbationEvaluator {
 
-	private static class EvaluationResults {
+	public static class EvaluationResults implements Serializable {
+		private static final long serialVersionUID = -3936208745017722113L;
 		public static final int RANK_SIZE = 20;
 		long[] tp = new long[RANK_SIZE];
 		long total = 0;
 		double reciprocalRankSum = 0;
 
+		public synchronized void merge(final EvaluationResults other) {
+			total += other.total;
+			reciprocalRankSum += other.reciprocalRankSum;
+			for (int i = 0; i < RANK_SIZE; i++) {
+				tp[i] += other.tp[i];
+			}
+		}
+
 		public void printStats() {
 			final StringBuffer sb = new StringBuffer();
 			for (int i = 0; i < RANK_SIZE; i++) {
@@ -134,6 +146,12 @@ public class PerturbationEvaluator {
 		final PerturbationEvaluator pe = new PerturbationEvaluator(directory,
 				new JavaTokenizer(), scopeExtractor, renamerClass);
 
+		final EvaluationCheckpoint<EvaluationResults> checkpoint = EvaluationCheckpoint
+				.fromSettings("PerturbationEvaluator");
+		if (checkpoint != null) {
+			pe.resumeFrom(checkpoint);
+		}
+
 		pe.performEvaluation();
 		pe.er.printStats();
 
@@ -151,6 +169,11 @@ public class PerturbationEvaluator {
 
 	final Collection<File> allFiles;
 
+	/**
+	 * Where the results of each file are persisted. May be null.
+	 */
+	private EvaluationCheckpoint<EvaluationResults> checkpoint = null;
+
 	public PerturbationEvaluator(final File directory,
 			final ITokenizer tokenizer, final IScopeExtractor scopeExtractor,
 			final String renamerClass) {
@@ -175,6 +198,7 @@ public class PerturbationEvaluator {
 		final Multimap<Scope, String> scopes = scopeExtractor
 				.getFromFile(testFile);
 		final String targetPertubedName = "mblamblambla";
+		final EvaluationResults fileResults = new EvaluationResults();
 
 		for (final Entry<Scope, String> entry : scopes.entries()) {
 			// TODO, here instead of reading again, give the method
@@ -184,14 +208,22 @@ public class PerturbationEvaluator {
 			final SegmentRenamingSuggestion rn = new SegmentRenamingSuggestion(
 					renamer, true);
 			final SortedSet<Suggestion> sg = rn.rankSuggestions(perturbed);
-			pushResults(sg, targetPertubedName);
+			pushResults(fileResults, sg, targetPertubedName);
 		}
+
+		if (checkpoint != null) {
+			checkpoint.save(testFile.getAbsolutePath(), fileResults);
+		}
+		er.merge(fileResults);
 	}
 
 	public void performEvaluation() {
 		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		int fileNo = 0;
 		for (final File f : allFiles) {
+			if (checkpoint != null && checkpoint.isDone(f.getAbsolutePath())) {
+				continue;
+			}
 			threadPool.pushTask(new Evaluator(f));
 			fileNo++;
 			if (fileNo % 10 == 0) {
@@ -209,13 +241,28 @@ public class PerturbationEvaluator {
 		return copy;
 	}
 
-	private synchronized void pushResults(
+	/**
+	 * Merge the results already in the checkpoint and persist the results of
+	 * each file evaluated from now on, skipping the files already evaluated.
+	 *
+	 * @param checkpoint
+	 */
+	public void resumeFrom(final EvaluationCheckpoint<EvaluationResults> checkpoint) {
+		final Map<String, EvaluationResults> done = checkpoint.loadAll();
+		for (final EvaluationResults fileResults : done.values()) {
+			er.merge(fileResults);
+		}
+		LOGGER.info("Resuming from " + done.size() + " evaluated files");
+		this.checkpoint = checkpoint;
+	}
+
+	private static void pushResults(final EvaluationResults results,
 			final SortedSet<Suggestion> suggestions, final String target) {
 		if (suggestions.size() == 1) {
 			return; // this is not something we should use...
 		}
 
-		er.total++;
+		results.total++;
 		int pos = 0;
 		boolean found = false;
 		for (final Suggestion sg : suggestions) {
@@ -228,9 +275,9 @@ public class PerturbationEvaluator {
 		if (!found)
 			return;
 
-		er.reciprocalRankSum += 1. / ((double) pos);
+		results.reciprocalRankSum += 1. / ((double) pos);
 		for (int i = pos; i <= EvaluationResults.RANK_SIZE; i++) {
-			er.tp[i - 1]++;
+			results.tp[i - 1]++;
 		}
 	}
 }
@@ -19,6 +19,7 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.dom.ASTNode;
 
+import renaming.metrics.IdentifierQueryStats;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.renamers.BaseIdentifierRenamings;
 import renaming.renamers.INGramIdentifierRenamer.Renaming;
@@ -133,6 +134,9 @@ public class SegmentRenamingSuggestion {
 	private static final Logger LOGGER = Logger
 			.getLogger(SegmentRenamingSuggestion.class.getName());
 
+	private static final IdentifierQueryStats QUERY_STATS = new IdentifierQueryStats(
+			"SegmentRenamingSuggestion.identifier");
+
 	public static SortedSet<Suggestion> getVariableSuggestions(
 			final File currentFile, final File directory, final boolean useUNK)
 			throws IOException {
@@ -183,6 +187,7 @@ public class SegmentRenamingSuggestion {
 				renamer, scopeExtractor, true);
 
 		System.out.println(suggestion.rankSuggestions(new File(args[0])));
+		QUERY_STATS.getSlowQueries().log(LOGGER);
 
 	}
 
@@ -257,8 +262,12 @@ public class SegmentRenamingSuggestion {
 		final SortedSet<Suggestion> suggestions = Sets.newTreeSet();
 		for (final Entry<Scope, String> s : identifiers.entries()) {
 			try {
+				final long start = System.nanoTime();
 				final SortedSet<Renaming> renamings = renamer.getRenamings(
 						s.getKey(), s.getValue());
+				QUERY_STATS.record(System.nanoTime() - start, s.getValue(),
+						s.getKey(), renamings.size(),
+						renamings.first().nContexts);
 				suggestions.add(addRenamingSuggestion(renamings, s.getValue(),
 						s.getKey()));
 			} catch (final Throwable e) {
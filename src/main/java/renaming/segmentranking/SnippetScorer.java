@@ -5,15 +5,28 @@ package renaming.segmentranking;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.eclipse.jdt.core.dom.ASTNode;
 
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.renamers.INGramIdentifierRenamer.Renaming;
 import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
+import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.scopes.MethodScopeExtractor;
 import codemining.java.codeutils.scopes.TypenameScopeExtractor;
 import codemining.languagetools.IScopeExtractor;
@@ -21,9 +34,11 @@ import codemining.util.SettingsLoader;
 
 import com.google.common.base.Objects;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.math.DoubleMath;
+import com.google.common.util.concurrent.Callables;
 
 /**
  * Score snippets based on the log-likelihood ratio.
@@ -33,6 +48,23 @@ import com.google.common.math.DoubleMath;
  */
 public class SnippetScorer {
 
+	/**
+	 * Receives the suggestions of each input of a batch scoring, in the order
+	 * of the inputs.
+	 */
+	public interface IScoredSnippetCallback {
+		/**
+		 * @param index
+		 *            the index of the input
+		 * @param suggestions
+		 *            the suggestions, or null if the input failed to be
+		 *            parsed or scored
+		 * @throws IOException
+		 */
+		void accept(int index, SnippetSuggestions suggestions)
+				throws IOException;
+	}
+
 	public static class SnippetSuggestions implements
 			Comparable<SnippetSuggestions> {
 
@@ -102,6 +134,8 @@ public class SnippetScorer {
 	private static final Logger LOGGER = Logger.getLogger(SnippetScorer.class
 			.getName());
 
+	private static final Timer PARSING_TIMER = Metrics.timer("astParsing");
+
 	private static final double SUGGESTION_THRESHOLD_TYPE = SettingsLoader
 			.getNumericSetting("SuggestionThresholdType", 1);
 	private static final double SUGGESTION_THRESHOLD_METHOD = SettingsLoader
@@ -111,6 +145,30 @@ public class SnippetScorer {
 	private static final int SUGGESTION_K = (int) SettingsLoader
 			.getNumericSetting("k", 5);
 
+	/**
+	 * The number of threads of the pool used by the batch scoring methods.
+	 */
+	public static final int BATCH_PARALLELISM = (int) SettingsLoader
+			.getNumericSetting("SnippetScorer.parallelism", Runtime
+					.getRuntime().availableProcessors());
+
+	/**
+	 * The maximum number of scoring tasks that the batch scoring methods keep
+	 * submitted (queued, running or finished but not yet consumed) at a time.
+	 * Since scoreFiles() parses within the tasks and passes each result on as
+	 * soon as it is consumed, this bounds both its parsed ASTs and its
+	 * buffered results; scoreSnippets() receives all its ASTs already parsed.
+	 */
+	public static final int BATCH_QUEUE_DEPTH = (int) SettingsLoader
+			.getNumericSetting("SnippetScorer.queueDepth",
+					4 * BATCH_PARALLELISM);
+
+	/**
+	 * The work-stealing pool shared by all batch scorings.
+	 */
+	private static final ForkJoinPool BATCH_POOL = new ForkJoinPool(
+			BATCH_PARALLELISM);
+
 	public static SortedSet<Renaming> applyThresholdToRenamings(
 			final SortedSet<Renaming> suggestedRenamings, final double threshold) {
 		final SortedSet<Renaming> filteredRenamings = Sets.newTreeSet();
@@ -190,6 +248,13 @@ public class SnippetScorer {
 			throws IOException {
 		final SegmentRenamingSuggestion srs = new SegmentRenamingSuggestion(
 				renamer, scopeExtractor, useUNK);
+		return scoreSnippet(node, srs, filterSuggestions, useUNK);
+	}
+
+	private static SnippetSuggestions scoreSnippet(final ASTNode node,
+			final SegmentRenamingSuggestion srs,
+			final boolean filterSuggestions, final boolean useUNK)
+			throws IOException {
 		final SortedSet<Suggestion> suggestions = srs.rankSuggestions(node);
 		final SortedSet<Suggestion> filteredSuggestions = Sets.newTreeSet();
 
@@ -217,21 +282,159 @@ public class SnippetScorer {
 				score);
 	}
 
-	private final AbstractIdentifierRenamings renamer;
+	private final SegmentRenamingSuggestion rankerWithUNK;
 
-	private final IScopeExtractor scopeExtractor;
+	private final SegmentRenamingSuggestion rankerWithoutUNK;
 
 	/**
 	 * 
 	 */
 	public SnippetScorer(final AbstractIdentifierRenamings renamer,
 			final IScopeExtractor extractor) {
-		this.renamer = renamer;
-		scopeExtractor = extractor;
+		rankerWithUNK = new SegmentRenamingSuggestion(renamer, extractor, true);
+		rankerWithoutUNK = new SegmentRenamingSuggestion(renamer, extractor,
+				false);
+	}
+
+	/**
+	 * Score all the given files in parallel on the shared batch pool. Files
+	 * are parsed within the scoring tasks. The suggestions of each file are
+	 * passed to the callback, in the order of the files, as soon as they and
+	 * those of all the preceding files are ready, so that at most
+	 * BATCH_QUEUE_DEPTH results are held in memory. Failures are logged and
+	 * passed on as null, rather than thrown.
+	 * 
+	 * @param files
+	 * @param useUNK
+	 * @param bestEffortParse
+	 *            parse each file with getBestEffortAstNode() instead of as a
+	 *            compilation unit
+	 * @param callback
+	 *            receives the index of each file and its suggestions
+	 * @throws IOException
+	 *             if the callback throws
+	 */
+	public void scoreFiles(final List<File> files, final boolean useUNK,
+			final boolean bestEffortParse, final IScoredSnippetCallback callback)
+			throws IOException {
+		final List<Callable<ASTNode>> nodeSuppliers = Lists.newArrayList();
+		for (final File file : files) {
+			nodeSuppliers.add(new Callable<ASTNode>() {
+
+				@Override
+				public ASTNode call() throws IOException {
+					final JavaASTExtractor ex = new JavaASTExtractor(false);
+					try (Timer.Context parsingTime = PARSING_TIMER.time()) {
+						if (bestEffortParse) {
+							return ex.getBestEffortAstNode(FileUtils
+									.readFileToString(file));
+						}
+						return ex.getAST(file);
+					}
+				}
+			});
+		}
+		scoreInParallel(nodeSuppliers, useUNK, callback);
 	}
 
+	/**
+	 * Score a snippet.
+	 * 
+	 * @param node
+	 * @param useUNK
+	 * @return
+	 * @throws IOException
+	 */
 	public SnippetSuggestions scoreSnippet(final ASTNode node,
 			final boolean useUNK) throws IOException {
-		return scoreSnippet(node, renamer, scopeExtractor, true, useUNK);
+		return scoreSnippet(node, useUNK ? rankerWithUNK : rankerWithoutUNK,
+				true, useUNK);
+	}
+
+	/**
+	 * Score all the given snippets in parallel on the shared batch pool.
+	 * Failures are logged and returned as null, rather than thrown.
+	 * 
+	 * @param nodes
+	 * @param useUNK
+	 * @return the suggestions in the order of the input nodes. Nodes that
+	 *         failed to be scored have a null entry, so callers must check
+	 *         each element.
+	 */
+	public List<SnippetSuggestions> scoreSnippets(
+			final List<? extends ASTNode> nodes, final boolean useUNK) {
+		final List<Callable<ASTNode>> nodeSuppliers = Lists.newArrayList();
+		for (final ASTNode node : nodes) {
+			nodeSuppliers.add(Callables.<ASTNode> returning(node));
+		}
+		final List<SnippetSuggestions> results = Lists
+				.newArrayListWithCapacity(nodes.size());
+		try {
+			scoreInParallel(nodeSuppliers, useUNK,
+					(index, suggestions) -> results.add(suggestions));
+		} catch (final IOException e) {
+			// Adding to the list does not throw
+			throw new IllegalStateException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * Return the result of a scoring task, or null if it failed.
+	 */
+	private static SnippetSuggestions getResult(
+			final Future<SnippetSuggestions> result) {
+		try {
+			return result.get();
+		} catch (final ExecutionException e) {
+			LOGGER.warning("Failed to score snippet "
+					+ ExceptionUtils.getFullStackTrace(e));
+			return null;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Score the nodes returned by the suppliers on the batch pool, through an
+	 * in-order window of at most BATCH_QUEUE_DEPTH tasks. Once the window is
+	 * full, the oldest task is waited for and its result passed to the
+	 * callback before the next task is submitted.
+	 * 
+	 * @param nodeSuppliers
+	 * @param useUNK
+	 * @param callback
+	 * @throws IOException
+	 *             if the callback throws
+	 */
+	private void scoreInParallel(final List<Callable<ASTNode>> nodeSuppliers,
+			final boolean useUNK, final IScoredSnippetCallback callback)
+			throws IOException {
+		final Deque<Future<SnippetSuggestions>> window = new ArrayDeque<Future<SnippetSuggestions>>();
+		int nextIndex = 0;
+		try {
+			for (final Callable<ASTNode> nodeSupplier : nodeSuppliers) {
+				if (window.size() >= BATCH_QUEUE_DEPTH) {
+					callback.accept(nextIndex++, getResult(window.poll()));
+				}
+				window.add(BATCH_POOL
+						.submit(new Callable<SnippetSuggestions>() {
+
+							@Override
+							public SnippetSuggestions call() throws Exception {
+								return scoreSnippet(nodeSupplier.call(), useUNK);
+							}
+						}));
+			}
+			while (!window.isEmpty()) {
+				callback.accept(nextIndex++, getResult(window.poll()));
+			}
+		} finally {
+			// If the callback failed, do not score the remaining inputs
+			for (final Future<SnippetSuggestions> pending : window) {
+				pending.cancel(false);
+			}
+		}
 	}
 }
@@ -6,21 +6,26 @@ package renaming.stats;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.lang.exception.ExceptionUtils;
 
 import codemining.java.codeutils.scopes.ScopesTUI;
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.IScopeExtractor;
 import codemining.languagetools.ITokenizer;
 import codemining.languagetools.Scope;
+import codemining.util.parallel.ParallelThreadPool;
 
+import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
 import com.google.common.primitives.Longs;
 
 /**
@@ -36,15 +41,18 @@ public class VariableUsageStatistics {
 	 * 
 	 */
 	private static class UsageStats implements Comparable<UsageStats> {
-		public long timesSeen = 0;
-		public long sumContexts = 0;
+		public final LongAdder timesSeen = new LongAdder();
+		public final LongAdder sumContexts = new LongAdder();
 
 		@Override
 		public int compareTo(UsageStats other) {
-			return Longs.compare(timesSeen, other.timesSeen);
+			return Longs.compare(timesSeen.sum(), other.timesSeen.sum());
 		}
 	}
 
+	private static final Logger LOGGER = Logger
+			.getLogger(VariableUsageStatistics.class.getName());
+
 	/**
 	 * @param args
 	 * @throws IOException
@@ -71,7 +79,7 @@ public class VariableUsageStatistics {
 
 	private final ITokenizer tokenizer;
 
-	private final Map<String, UsageStats> statistics;
+	private final ConcurrentMap<String, UsageStats> statistics;
 
 	/**
 	 * 
@@ -81,44 +89,57 @@ public class VariableUsageStatistics {
 		allFiles = FileUtils.listFiles(directory, tokenizer.getFileFilter(),
 				DirectoryFileFilter.DIRECTORY);
 		this.scopeExtractor = scopeExtractor;
-		statistics = Maps.newTreeMap();
+		statistics = Maps.newConcurrentMap();
 		this.tokenizer = tokenizer;
 	}
 
-	public void extractStats() throws IOException {
+	/**
+	 * Add the statistics of a single file. Each scope is tokenized once, no
+	 * matter how many variables it contains.
+	 * 
+	 * @param f
+	 * @throws IOException
+	 */
+	private void extractStats(final File f) throws IOException {
+		final Multimap<Scope, String> scopes = scopeExtractor.getFromFile(f);
+		for (final Entry<Scope, Collection<String>> scope : scopes.asMap()
+				.entrySet()) {
+			final Multiset<String> tokenCounts = HashMultiset
+					.create(tokenizer.tokenListFromCode(scope.getKey().code
+							.toCharArray()));
+			for (final String varName : scope.getValue()) {
+				final UsageStats stats = statistics.computeIfAbsent(varName,
+						name -> new UsageStats());
+				stats.sumContexts.add(tokenCounts.count(varName));
+				stats.timesSeen.increment();
+			}
+		}
+	}
+
+	public void extractStats() {
+		final ParallelThreadPool threadPool = new ParallelThreadPool();
 		for (final File f : allFiles) {
-			final Multimap<Scope, String> scopes = scopeExtractor
-					.getFromFile(f);
-			for (final Entry<Scope, String> entry : scopes.entries()) {
-				final String varName = entry.getValue();
-				final List<String> tokens = tokenizer.tokenListFromCode(entry
-						.getKey().code.toCharArray());
-				int count = 0;
-				for (final String token : tokens) {
-					if (token.equals(varName)) {
-						count++;
-					}
+			threadPool.pushTask(() -> {
+				try {
+					extractStats(f);
+				} catch (final IOException e) {
+					LOGGER.warning("Failed to read " + f.getAbsolutePath()
+							+ " " + ExceptionUtils.getFullStackTrace(e));
 				}
-				final UsageStats stats;
-				if (statistics.containsKey(varName)) {
-					stats = statistics.get(varName);
-				} else {
-					stats = new UsageStats();
-					statistics.put(varName, stats);
-				}
-				stats.sumContexts += count;
-				stats.timesSeen++;
-			}
+			});
 		}
+		threadPool.waitForTermination();
 	}
 
 	public void printStats() {
-		for (final Entry<String, UsageStats> entry : statistics.entrySet()) {
+		for (final Entry<String, UsageStats> entry : Maps.newTreeMap(
+				statistics).entrySet()) {
 
 			final UsageStats stats = entry.getValue();
-			final double avgContextSize = ((double) stats.sumContexts)
-					/ stats.timesSeen;
-			System.out.println(entry.getKey() + "\t" + stats.timesSeen + "\t"
+			final long timesSeen = stats.timesSeen.sum();
+			final double avgContextSize = ((double) stats.sumContexts.sum())
+					/ timesSeen;
+			System.out.println(entry.getKey() + "\t" + timesSeen + "\t"
 					+ avgContextSize);
 		}
 	}
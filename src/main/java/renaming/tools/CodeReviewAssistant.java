@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -26,7 +27,6 @@ import renaming.renamers.INGramIdentifierRenamer.Renaming;
 import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
 import renaming.segmentranking.SnippetScorer;
 import renaming.segmentranking.SnippetScorer.SnippetSuggestions;
-import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.scopes.AllScopeExtractor;
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.IScopeExtractor;
@@ -46,6 +46,11 @@ import com.google.common.collect.Lists;
  */
 public class CodeReviewAssistant {
 
+	/**
+	 * The tokenizer used to filter out non-identifier alternatives.
+	 */
+	static final JavaTokenizer TOKENIZER = new JavaTokenizer();
+
 	/**
 	 * @param args
 	 * @throws SerializationException
@@ -69,6 +74,9 @@ public class CodeReviewAssistant {
 				.create("m"));
 		options.addOption(OptionBuilder.isRequired(false).withLongOpt("types")
 				.withDescription("Rename types.").create("t"));
+		options.addOption(OptionBuilder.isRequired(false).withLongOpt("json")
+				.withDescription("Output the suggestions as JSON lines.")
+				.create("j"));
 
 		final OptionGroup lmGroup = new OptionGroup();
 		lmGroup.setRequired(true);
@@ -137,25 +145,41 @@ public class CodeReviewAssistant {
 					parse.hasOption("t"));
 		}
 
-		final JavaASTExtractor ex = new JavaASTExtractor(false);
 		final SnippetScorer scorer = new SnippetScorer(renamer, scopeExtractor);
-		boolean noSuggestions = true;
-		for (final File f : testFiles) {
-			final String snippetCode = FileUtils.readFileToString(f);
-			final SnippetSuggestions suggestions = scorer.scoreSnippet(
-					ex.getAST(f), true);
-			if (!suggestions.suggestions.isEmpty()) {
-				noSuggestions = false;
-				System.out
-						.println("=========================================================");
-				System.out.println("Suggestions for" + f.getAbsolutePath());
-				System.out
-						.println("=========================================================");
-				printRenaming(suggestions, snippetCode, -1);
+		// Each file is written as soon as it is scored
+		if (parse.hasOption("j")) {
+			final SuggestionJsonWriter jsonOutput = SuggestionJsonWriter
+					.toStandardOutput(TOKENIZER);
+			try {
+				scorer.scoreFiles(testFiles, true, false, (i, suggestions) -> {
+					if (suggestions != null
+							&& !suggestions.suggestions.isEmpty()) {
+						jsonOutput.write(testFiles.get(i), suggestions);
+					}
+				});
+			} finally {
+				jsonOutput.close();
 			}
+			return;
 		}
 
-		if (noSuggestions) {
+		final AtomicBoolean noSuggestions = new AtomicBoolean(true);
+		scorer.scoreFiles(testFiles, true, false, (i, suggestions) -> {
+			if (suggestions == null || suggestions.suggestions.isEmpty()) {
+				return;
+			}
+			final File f = testFiles.get(i);
+			final String snippetCode = FileUtils.readFileToString(f);
+			noSuggestions.set(false);
+			System.out
+					.println("=========================================================");
+			System.out.println("Suggestions for" + f.getAbsolutePath());
+			System.out
+					.println("=========================================================");
+			printRenaming(suggestions, snippetCode, -1);
+		});
+
+		if (noSuggestions.get()) {
 			System.out.println("No suggestions");
 		}
 
@@ -169,7 +193,6 @@ public class CodeReviewAssistant {
 	 */
 	public static void printRenaming(final SnippetSuggestions suggestions,
 			final String code, final int id) {
-		final JavaTokenizer tokenizer = new JavaTokenizer();
 		final DecimalFormat df = new DecimalFormat("#.00");
 		if (id != -1) {
 			System.out
@@ -179,44 +202,24 @@ public class CodeReviewAssistant {
 		System.out.println("-------------------------------------------");
 		int i = 0;
 		for (final Suggestion suggestion : suggestions.suggestions) {
-			if (suggestion.getConfidence() > -.5) {
+			if (!SuggestionProbabilities.isShown(suggestion)) {
 				continue;
 			}
 			i++;
 
-			double total = 0;
-			double scoreOfCurrent = Double.POSITIVE_INFINITY;
-			for (final Renaming alternative : suggestion.getRenamings()) {
-				total += Math.pow(2, -alternative.score);
-				if ((alternative.name.equals(suggestion.getIdentifierName()) || alternative.name
-						.equals("UNK_SYMBOL"))
-						&& Double.isInfinite(scoreOfCurrent)) {
-					scoreOfCurrent = alternative.score;
-				}
-			}
-
+			final SuggestionProbabilities probabilities = new SuggestionProbabilities(
+					suggestion, TOKENIZER);
 			System.out.print(i + ".'" + suggestion.getIdentifierName() + "' ("
-					+ df.format(Math.pow(2, -scoreOfCurrent) / total * 100.)
-					+ "%) -> {");
-
-			int j = 1;
-			for (final Renaming alternative : suggestion.getRenamings()) {
-				if (!tokenizer
-						.getIdentifierType()
-						.equals(tokenizer.getTokenFromString(alternative.name).tokenType)) {
-					continue; // avoid non-identifier tokens.
-				}
-				if (alternative.score >= scoreOfCurrent) {
-					break;
-				}
-				System.out.print(alternative.name
-						+ "("
-						+ df.format(Math.pow(2, -alternative.score) * 100
-								/ total) + "%), ");
-				j++;
-				if (j > 10) {
+					+ df.format(probabilities.probNotRename * 100.) + "%) -> {");
+
+			for (int j = 0; j < probabilities.alternatives.size() && j < 10; j++) {
+				final Renaming alternative = probabilities.alternatives.get(j);
+				if (alternative.score >= probabilities.scoreOfCurrent) {
 					break;
 				}
+				System.out.print(alternative.name + "("
+						+ df.format(probabilities.probabilities.get(j) * 100)
+						+ "%), ");
 			}
 			System.out.println("}");
 		}
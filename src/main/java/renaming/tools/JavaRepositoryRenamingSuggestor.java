@@ -3,19 +3,27 @@
  */
 package renaming.tools;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
-import java.util.SortedSet;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jdt.core.dom.CompilationUnit;
 
-import renaming.renamers.AbstractIdentifierRenamings;
-import renaming.renamers.BaseIdentifierRenamings;
+import renaming.metrics.Metrics;
+import renaming.metrics.Timer;
+import renaming.renamers.LeaveOneOutIdentifierRenamings;
 import renaming.segmentranking.SnippetScorer;
 import renaming.segmentranking.SnippetScorer.SnippetSuggestions;
 import codemining.java.codeutils.JavaASTExtractor;
@@ -23,8 +31,12 @@ import codemining.java.codeutils.scopes.VariableScopeExtractor;
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.IScopeExtractor;
 import codemining.languagetools.ITokenizer;
+import codemining.util.SettingsLoader;
 import codemining.util.parallel.ParallelThreadPool;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.MinMaxPriorityQueue;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
 /**
@@ -68,17 +80,85 @@ public class JavaRepositoryRenamingSuggestor {
 
 	}
 
+	/**
+	 * Keep the top-N snippet suggestions in memory, spilling all others to
+	 * disk.
+	 *
+	 */
+	private static final class TopSnippetSuggestions {
+
+		private final MinMaxPriorityQueue<NamedSnippetSuggestions> topSuggestions = MinMaxPriorityQueue
+				.orderedBy(Ordering.<NamedSnippetSuggestions> natural())
+				.create();
+
+		private final int capacity;
+
+		private final SuggestionJsonWriter spill;
+
+		public TopSnippetSuggestions(final int capacity,
+				final SuggestionJsonWriter spill) {
+			checkArgument(capacity > 0);
+			this.capacity = capacity;
+			this.spill = spill;
+		}
+
+		public synchronized void offer(final NamedSnippetSuggestions suggestion)
+				throws IOException {
+			if (topSuggestions.size() >= capacity) {
+				final NamedSnippetSuggestions worst = topSuggestions.peekLast();
+				if (suggestion.compareTo(worst) >= 0) {
+					spill.write(suggestion.owningFile, suggestion);
+					return;
+				}
+				topSuggestions.pollLast();
+				spill.write(worst.owningFile, worst);
+			}
+			topSuggestions.add(suggestion);
+		}
+
+		/**
+		 * Remove and return the best suggestion, or null if there are none
+		 * left.
+		 */
+		public synchronized NamedSnippetSuggestions pollBest() {
+			return topSuggestions.pollFirst();
+		}
+	}
+
 	private static final Logger LOGGER = Logger
 			.getLogger(JavaRepositoryRenamingSuggestor.class.getName());
 
+	private static final Timer PARSING_TIMER = Metrics.timer("astParsing");
+
+	/**
+	 * The number of snippets that are kept in memory and printed at the end.
+	 */
+	public static final int TOP_N = (int) SettingsLoader.getNumericSetting(
+			"JavaRepositoryRenamingSuggestor.topN", 100);
+
+	/**
+	 * If true, the counts of each file are subtracted from a replica of the
+	 * model when suggesting for that file, avoiding the bias of the file being
+	 * part of its own training data. A single replica is used, so memory
+	 * stays at two models regardless of parallelism; the held-out scoring is
+	 * therefore serialized, while parsing still runs in parallel. The
+	 * vocabulary is not recomputed, so names that appear only in the file
+	 * remain known to the model (see {@link LeaveOneOutIdentifierRenamings}).
+	 * If false, each file is scored in parallel by the full model, which
+	 * favors the names the file already uses.
+	 */
+	public static final boolean EXCLUDE_SELF = SettingsLoader
+			.getBooleanSetting("JavaRepositoryRenamingSuggestor.excludeSelf",
+					true);
+
 	/**
 	 * @param args
 	 * @throws IOException
 	 */
 	public static void main(final String[] args) throws IOException {
-		if (args.length != 2) {
+		if (args.length < 2 || args.length > 4) {
 			System.out
-					.println("Usage <repositoryDir> <directoryToProduceSuggestionsFrom>");
+					.println("Usage <repositoryDir> <directoryToProduceSuggestionsFrom> [<jsonLinesOutputFile> [<spilledSuggestionsFile>]]");
 			System.exit(-1);
 		}
 
@@ -93,8 +173,37 @@ public class JavaRepositoryRenamingSuggestor {
 				suggestionDirectory, tokenizer.getFileFilter(),
 				DirectoryFileFilter.DIRECTORY);
 
-		final Set<NamedSnippetSuggestions> suggestionSet = Sets
-				.newConcurrentHashSet();
+		final SuggestionJsonWriter jsonOutput;
+		if (args.length >= 3) {
+			jsonOutput = new SuggestionJsonWriter(new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(args[2]),
+							Charsets.UTF_8)));
+		} else {
+			jsonOutput = null;
+		}
+
+		// The suggestions that do not make it to the top are kept only if
+		// the caller asks for them
+		final File spillFile;
+		if (args.length == 4) {
+			spillFile = new File(args[3]);
+		} else {
+			spillFile = File.createTempFile("suggestions", ".jsonl.gz");
+			spillFile.deleteOnExit();
+		}
+		final SuggestionJsonWriter spill = new SuggestionJsonWriter(
+				new OutputStreamWriter(new GZIPOutputStream(
+						new FileOutputStream(spillFile)), Charsets.UTF_8));
+		final TopSnippetSuggestions topSuggestions = new TopSnippetSuggestions(
+				TOP_N, spill);
+
+		final Set<File> trainFiles = Sets.newHashSet(allFiles);
+		final LeaveOneOutIdentifierRenamings renamer = new LeaveOneOutIdentifierRenamings(
+				tokenizer, 1);
+		renamer.buildRenamingModel(trainFiles);
+		final IScopeExtractor scopeExtractor = new VariableScopeExtractor.VariableScopeSnippetExtractor();
+		final SnippetScorer scorer = new SnippetScorer(renamer, scopeExtractor);
+
 		final ParallelThreadPool ptp = new ParallelThreadPool();
 		for (final File f : suggestFiles) {
 			ptp.pushTask(new Runnable() {
@@ -102,26 +211,29 @@ public class JavaRepositoryRenamingSuggestor {
 				@Override
 				public void run() {
 					try {
-						final AbstractIdentifierRenamings renamer = new BaseIdentifierRenamings(
-								tokenizer);
-
-						final Collection<File> trainFiles = Sets
-								.newHashSet(allFiles);
-						trainFiles.remove(f);
-						renamer.buildRenamingModel(trainFiles);
-
-						final IScopeExtractor scopeExtractor = new VariableScopeExtractor.VariableScopeSnippetExtractor();
 						final JavaASTExtractor ex = new JavaASTExtractor(false);
-						final SnippetScorer scorer = new SnippetScorer(renamer,
-								scopeExtractor);
+						final Timer.Context parsingTime = PARSING_TIMER.time();
+						final CompilationUnit cu = ex.getAST(f);
+						parsingTime.stop();
 
-						final SnippetSuggestions suggestions = scorer
-								.scoreSnippet(ex.getAST(f), true);
+						final SnippetSuggestions suggestions;
+						if (EXCLUDE_SELF && trainFiles.contains(f)) {
+							suggestions = renamer.callWithout(
+									Collections.singleton(f),
+									heldOutRenamer -> new SnippetScorer(
+											heldOutRenamer, scopeExtractor)
+											.scoreSnippet(cu, true));
+						} else {
+							suggestions = scorer.scoreSnippet(cu, true);
+						}
 						if (!suggestions.suggestions.isEmpty()) {
-							suggestionSet.add(new NamedSnippetSuggestions(
+							if (jsonOutput != null) {
+								jsonOutput.write(f, suggestions);
+							}
+							topSuggestions.offer(new NamedSnippetSuggestions(
 									suggestions, f));
 						}
-					} catch (final IOException e) {
+					} catch (final Exception e) {
 						// Ah.. Nothing we can do..
 						LOGGER.warning(ExceptionUtils.getFullStackTrace(e));
 					}
@@ -131,15 +243,20 @@ public class JavaRepositoryRenamingSuggestor {
 		}
 
 		ptp.waitForTermination();
+		if (jsonOutput != null) {
+			jsonOutput.close();
+		}
+		spill.close();
+		if (args.length == 4) {
+			LOGGER.info("Suggestions outside the top " + TOP_N
+					+ " were written to " + spillFile.getAbsolutePath());
+		}
 
-		final SortedSet<NamedSnippetSuggestions> allSuggestions = Sets
-				.newTreeSet(suggestionSet);
-
-		// Print suggestions
-		for (final NamedSnippetSuggestions suggestion : allSuggestions) {
-			if (!suggestion.suggestions.isEmpty()) {
-				suggestion.print();
-			}
+		// Print the top suggestions
+		NamedSnippetSuggestions suggestion = topSuggestions.pollBest();
+		while (suggestion != null) {
+			suggestion.print();
+			suggestion = topSuggestions.pollBest();
 		}
 
 	}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -22,8 +23,6 @@ import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import renaming.renamers.AbstractIdentifierRenamings;
 import renaming.renamers.BaseIdentifierRenamings;
 import renaming.segmentranking.SnippetScorer;
-import renaming.segmentranking.SnippetScorer.SnippetSuggestions;
-import codemining.java.codeutils.JavaASTExtractor;
 import codemining.java.codeutils.scopes.AllScopeExtractor;
 import codemining.java.tokenizers.JavaTokenizer;
 import codemining.languagetools.IScopeExtractor;
@@ -68,6 +67,9 @@ public class PreCommitVerifier {
 				.create("m"));
 		options.addOption(OptionBuilder.isRequired(false).withLongOpt("types")
 				.withDescription("Check types.").create("t"));
+		options.addOption(OptionBuilder.isRequired(false).withLongOpt("json")
+				.withDescription("Output the suggestions as JSON lines.")
+				.create("j"));
 
 		final OptionGroup lmGroup = new OptionGroup();
 		lmGroup.setRequired(true);
@@ -150,32 +152,42 @@ public class PreCommitVerifier {
 					parse.hasOption("t"));
 		}
 
-		final JavaASTExtractor ex = new JavaASTExtractor(false);
 		final SnippetScorer scorer = new SnippetScorer(renamer, scopeExtractor);
-		boolean noSuggestions = true;
-		for (final File f : testFiles) {
-			final String snippetCode = FileUtils.readFileToString(f);
-			SnippetSuggestions suggestions;
-			try {
-				suggestions = scorer.scoreSnippet(
-						ex.getBestEffortAstNode(snippetCode), false);
-				if (!suggestions.suggestions.isEmpty()) {
-					noSuggestions = false;
+		final SuggestionJsonWriter jsonOutput;
+		if (parse.hasOption("j")) {
+			jsonOutput = SuggestionJsonWriter
+					.toStandardOutput(CodeReviewAssistant.TOKENIZER);
+		} else {
+			jsonOutput = null;
+		}
+		// Each file is written as soon as it is scored
+		final AtomicBoolean noSuggestions = new AtomicBoolean(true);
+		try {
+			scorer.scoreFiles(testFiles, false, true, (i, suggestions) -> {
+				if (suggestions == null || suggestions.suggestions.isEmpty()) {
+					return;
+				}
+				final File f = testFiles.get(i);
+				noSuggestions.set(false);
+				if (jsonOutput != null) {
+					jsonOutput.write(f, suggestions);
+				} else {
 					System.out
 							.println("=========================================================");
 					System.out.println("Suggestions for" + f.getAbsolutePath());
 					System.out
 							.println("=========================================================");
-					CodeReviewAssistant.printRenaming(suggestions, snippetCode,
-							-1);
+					CodeReviewAssistant.printRenaming(suggestions,
+							FileUtils.readFileToString(f), -1);
 				}
-			} catch (final Exception e) {
-				e.printStackTrace();
+			});
+		} finally {
+			if (jsonOutput != null) {
+				jsonOutput.close();
 			}
-
 		}
 
-		if (noSuggestions) {
+		if (noSuggestions.get()) {
 			System.exit(0);
 		} else {
 			System.exit(-1);
@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package renaming.tools;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import renaming.renamers.INGramIdentifierRenamer.Renaming;
+import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
+import renaming.segmentranking.SnippetScorer.SnippetSuggestions;
+import codemining.languagetools.ITokenizer;
+
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Write the suggestions of each file as a single JSON line, so that the output
+ * can be consumed while a run is still going.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class SuggestionJsonWriter implements Closeable {
+
+	/**
+	 * The size of the buffer used when writing to the standard output.
+	 */
+	public static final int STDOUT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Return a writer to the standard output that flushes only when its
+	 * (bounded) buffer is full or when closed.
+	 *
+	 * @param identifierTokenizer
+	 * @return
+	 */
+	public static SuggestionJsonWriter toStandardOutput(
+			final ITokenizer identifierTokenizer) {
+		return new SuggestionJsonWriter(new BufferedWriter(
+				new OutputStreamWriter(System.out, Charsets.UTF_8),
+				STDOUT_BUFFER_SIZE), identifierTokenizer, false);
+	}
+
+	private final Writer writer;
+
+	/**
+	 * The tokenizer used to filter out the alternatives that are not
+	 * identifiers.
+	 */
+	private final ITokenizer identifierTokenizer;
+
+	private final boolean flushEachLine;
+
+	public SuggestionJsonWriter(final Writer writer) {
+		this(writer, CodeReviewAssistant.TOKENIZER, true);
+	}
+
+	/**
+	 * @param writer
+	 *            the output. Any buffering is left to the writer.
+	 * @param identifierTokenizer
+	 *            alternatives that this tokenizer does not consider
+	 *            identifiers are omitted
+	 * @param flushEachLine
+	 *            flush after each file, instead of when the writer's buffer
+	 *            is full
+	 */
+	public SuggestionJsonWriter(final Writer writer,
+			final ITokenizer identifierTokenizer, final boolean flushEachLine) {
+		this.writer = writer;
+		this.identifierTokenizer = checkNotNull(identifierTokenizer);
+		this.flushEachLine = flushEachLine;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	/**
+	 * Write a number, or null if it is infinite or NaN, since these are not
+	 * valid JSON.
+	 *
+	 * @param json
+	 * @param value
+	 * @throws IOException
+	 */
+	private static void writeNumber(final JsonWriter json, final double value)
+			throws IOException {
+		if (Double.isInfinite(value) || Double.isNaN(value)) {
+			json.nullValue();
+		} else {
+			json.value(value);
+		}
+	}
+
+	/**
+	 * Write the suggestions for the given file. As in the text output, only
+	 * the suggestions that are confident enough are written. Infinite scores
+	 * are written as null.
+	 *
+	 * @param file
+	 * @param suggestions
+	 * @throws IOException
+	 */
+	public void write(final File file, final SnippetSuggestions suggestions)
+			throws IOException {
+		final StringWriter line = new StringWriter();
+		final JsonWriter json = new JsonWriter(line);
+		json.beginObject();
+		json.name("file").value(file.getAbsolutePath());
+		writeNumber(json.name("score"), suggestions.score);
+		json.name("suggestions").beginArray();
+		for (final Suggestion suggestion : suggestions.suggestions) {
+			if (SuggestionProbabilities.isShown(suggestion)) {
+				writeSuggestion(json, suggestion);
+			}
+		}
+		json.endArray();
+		json.endObject();
+		json.close();
+
+		synchronized (this) {
+			writer.write(line.toString());
+			writer.write('\n');
+			if (flushEachLine) {
+				writer.flush();
+			}
+		}
+	}
+
+	/**
+	 * Write a single suggestion, along with the normalized probabilities of
+	 * its alternatives.
+	 *
+	 * @param json
+	 * @param suggestion
+	 * @throws IOException
+	 */
+	private void writeSuggestion(final JsonWriter json,
+			final Suggestion suggestion) throws IOException {
+		final SuggestionProbabilities probabilities = new SuggestionProbabilities(
+				suggestion, identifierTokenizer);
+
+		json.beginObject();
+		json.name("identifier").value(suggestion.getIdentifierName());
+		json.name("type").value(suggestion.scope.type);
+		writeNumber(json.name("confidence"), suggestion.getConfidence());
+		writeNumber(json.name("probNotRename"), probabilities.probNotRename);
+		json.name("alternatives").beginArray();
+		for (int i = 0; i < probabilities.alternatives.size(); i++) {
+			final Renaming alternative = probabilities.alternatives.get(i);
+			json.beginObject();
+			json.name("name").value(alternative.name);
+			writeNumber(json.name("score"), alternative.score);
+			writeNumber(json.name("probability"),
+					probabilities.probabilities.get(i));
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+	}
+}
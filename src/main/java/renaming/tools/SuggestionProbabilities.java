@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package renaming.tools;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import renaming.renamers.INGramIdentifierRenamer.Renaming;
+import renaming.segmentranking.SegmentRenamingSuggestion.Suggestion;
+import codemining.languagetools.ITokenizer;
+import codemining.lm.ngram.AbstractNGramLM;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The normalized probabilities of the alternatives of a suggestion, as shown
+ * to the user. Both the text and the JSON output use this class, so that they
+ * show the same suggestions and numbers.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+final class SuggestionProbabilities {
+
+	/**
+	 * Suggestions with a confidence above this are not shown.
+	 */
+	static final double MAX_SHOWN_CONFIDENCE = -.5;
+
+	/**
+	 * Return true if the suggestion is confident enough to be shown.
+	 */
+	static boolean isShown(final Suggestion suggestion) {
+		return suggestion.getConfidence() <= MAX_SHOWN_CONFIDENCE;
+	}
+
+	/**
+	 * The alternatives that are identifiers (or the unknown symbol), best
+	 * first.
+	 */
+	final List<Renaming> alternatives = Lists.newArrayList();
+
+	/**
+	 * The probability of each of the alternatives, normalized over all the
+	 * alternatives of the suggestion.
+	 */
+	final List<Double> probabilities = Lists.newArrayList();
+
+	/**
+	 * The probability of keeping the current name, i.e. the sum of the
+	 * probabilities of the current name and the unknown symbol.
+	 */
+	final double probNotRename;
+
+	/**
+	 * The best score of the current name or the unknown symbol, or infinity
+	 * if neither is an alternative.
+	 */
+	final double scoreOfCurrent;
+
+	/**
+	 * @param suggestion
+	 * @param identifierTokenizer
+	 *            the tokenizer used to filter out the alternatives that are
+	 *            not identifiers
+	 */
+	SuggestionProbabilities(final Suggestion suggestion,
+			final ITokenizer identifierTokenizer) {
+		checkNotNull(identifierTokenizer);
+		final String identifierName = suggestion.getIdentifierName();
+		double total = 0;
+		for (final Renaming alternative : suggestion.getRenamings()) {
+			total += Math.pow(2, -alternative.score);
+		}
+
+		double notRename = 0;
+		double currentScore = Double.POSITIVE_INFINITY;
+		for (final Renaming alternative : suggestion.getRenamings()) {
+			final double probability = Math.pow(2, -alternative.score) / total;
+			final boolean isUnk = alternative.name
+					.equals(AbstractNGramLM.UNK_SYMBOL);
+			if (isUnk || alternative.name.equals(identifierName)) {
+				notRename += probability;
+				currentScore = Math.min(currentScore, alternative.score);
+			}
+			if (isUnk
+					|| identifierTokenizer.getIdentifierType().equals(
+							identifierTokenizer
+									.getTokenFromString(alternative.name).tokenType)) {
+				alternatives.add(alternative);
+				probabilities.add(probability);
+			}
+		}
+		probNotRename = notRename;
+		scoreOfCurrent = currentScore;
+	}
+
+}
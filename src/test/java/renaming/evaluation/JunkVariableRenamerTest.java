@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package renaming.evaluation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.SimpleName;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class JunkVariableRenamerTest {
+
+	/**
+	 * Parse the class body and return, in source order, whether each
+	 * occurrence of the name v is considered a variable name.
+	 */
+	private static List<Boolean> getVariableNames(final String classBody) {
+		final ASTParser parser = ASTParser.newParser(AST.JLS8);
+		final Map<String, String> options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(JavaCore.VERSION_1_8, options);
+		parser.setCompilerOptions(options);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setSource(("class A {" + classBody + "}").toCharArray());
+		final ASTNode compilationUnit = parser.createAST(null);
+
+		final List<Boolean> isVariable = Lists.newArrayList();
+		compilationUnit.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(final SimpleName node) {
+				if (node.getIdentifier().equals("v")) {
+					isVariable.add(JunkVariableRenamer.isVariableName(node));
+				}
+				return false;
+			}
+		});
+		return isVariable;
+	}
+
+	@Test
+	public void testAnnotations() {
+		assertEquals(Lists.newArrayList(true, false, false, true),
+				getVariableNames("int v; @v(v = v) void m() {}"));
+	}
+
+	@Test
+	public void testEnumConstantsAndTypeParameters() {
+		assertEquals(Lists.newArrayList(false, false, false, true),
+				getVariableNames("enum E { v } <v> void m(v v) {}"));
+	}
+
+	@Test
+	public void testFieldAccess() {
+		assertEquals(Lists.newArrayList(true, true, false, true),
+				getVariableNames("int v; void m() { this.v = super.v + v; }"));
+	}
+
+	@Test
+	public void testLabels() {
+		assertEquals(
+				Lists.newArrayList(true, false, true, false, false),
+				getVariableNames("void m(int v) { v: for (;;) { if (v > 0) break v; continue v; } }"));
+	}
+
+	@Test
+	public void testLambda() {
+		assertEquals(
+				Lists.newArrayList(true, true),
+				getVariableNames("java.util.function.IntUnaryOperator f = v -> v;"));
+	}
+
+	@Test
+	public void testMethodReferences() {
+		assertEquals(
+				Lists.newArrayList(true, true, true, false),
+				getVariableNames("java.util.function.Supplier<Object> v; void m() { v = v::v; }"));
+	}
+
+	@Test
+	public void testMethods() {
+		assertEquals(Lists.newArrayList(false, false),
+				getVariableNames("void v() { v(); }"));
+	}
+
+	@Test
+	public void testQualifiedNames() {
+		assertEquals(
+				Lists.newArrayList(true, true, false, false, false),
+				getVariableNames("Object v; void m() { v.v.toString(); v.v w = null; }"));
+	}
+
+	@Test
+	public void testQualifiedTypes() {
+		assertEquals(Lists.newArrayList(false, false, false, false),
+				getVariableNames("v<String>.v a; v.@B v b;"));
+	}
+
+}
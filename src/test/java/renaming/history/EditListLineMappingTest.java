@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package renaming.history;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Check the binary search against the linear scan that it replaced.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class EditListLineMappingTest {
+
+	/**
+	 * The linear scan over the edits, as previously done in
+	 * ChangingIdentifiersRepositoryWalker.
+	 */
+	private static Range<Integer> getNewLineGivenOldLinear(
+			final int oldLineNumber, final EditList editList) {
+		int offsetAbove = 0;
+		for (final Edit edit : editList) {
+			if (edit.getBeginA() < oldLineNumber
+					&& edit.getEndA() < oldLineNumber) {
+				offsetAbove += -(edit.getEndA() - edit.getBeginA())
+						+ (edit.getEndB() - edit.getBeginB());
+			} else if (edit.getBeginA() <= oldLineNumber
+					&& edit.getEndA() >= oldLineNumber) {
+				return Range.closed(edit.getBeginB(), edit.getEndB());
+			} else {
+				return Range.closed(oldLineNumber + offsetAbove, oldLineNumber
+						+ offsetAbove);
+			}
+		}
+		return Range.closed(oldLineNumber + offsetAbove, oldLineNumber
+				+ offsetAbove);
+	}
+
+	private static void assertSameAsLinear(final EditList editList,
+			final int maxLine) {
+		final EditListLineMapping mapping = new EditListLineMapping(editList);
+		for (int line = 0; line <= maxLine; line++) {
+			assertEquals("line " + line,
+					getNewLineGivenOldLinear(line, editList),
+					mapping.getNewLineGivenOld(line));
+		}
+	}
+
+	@Test
+	public void testEmptyEditList() {
+		assertSameAsLinear(new EditList(), 5);
+		assertEquals(Range.closed(3, 3),
+				new EditListLineMapping(new EditList()).getNewLineGivenOld(3));
+	}
+
+	@Test
+	public void testInsertionsDeletionsAndAdjacentEdits() {
+		final EditList editList = new EditList();
+		// Insert 3 lines
+		editList.add(new Edit(2, 2, 2, 5));
+		// Delete 2 lines
+		editList.add(new Edit(5, 7, 8, 8));
+		// Replace 1 line by 2, adjacent to the deletion
+		editList.add(new Edit(7, 8, 8, 10));
+		// Insert 1 line, adjacent to the replacement
+		editList.add(new Edit(8, 8, 10, 11));
+		// Replace 2 lines by 1
+		editList.add(new Edit(12, 14, 15, 16));
+		assertSameAsLinear(editList, 20);
+
+		final EditListLineMapping mapping = new EditListLineMapping(editList);
+		// Before the edits
+		assertEquals(Range.closed(1, 1), mapping.getNewLineGivenOld(1));
+		// Inside the deletion
+		assertEquals(Range.closed(8, 8), mapping.getNewLineGivenOld(6));
+		// Between the edits
+		assertEquals(Range.closed(13, 13), mapping.getNewLineGivenOld(10));
+		// Inside the last replacement
+		assertEquals(Range.closed(15, 16), mapping.getNewLineGivenOld(13));
+		// After the edits
+		assertEquals(Range.closed(22, 22), mapping.getNewLineGivenOld(20));
+	}
+
+	@Test
+	public void testSingleInsertion() {
+		final EditList editList = new EditList();
+		editList.add(new Edit(4, 4, 4, 6));
+		assertSameAsLinear(editList, 10);
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package renaming.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import renaming.history.RepentDataParser.ParsedLine;
+
+/**
+ * Check that the fast parser agrees with the regular expression.
+ *
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class RepentDataParserTest {
+
+	private static void assertSameFields(final ParsedLine expected,
+			final ParsedLine actual) {
+		assertEquals(expected.filename, actual.filename);
+		assertEquals(expected.fromRevision, actual.fromRevision);
+		assertEquals(expected.toRevision, actual.toRevision);
+		assertEquals(expected.linesBeforeStart, actual.linesBeforeStart);
+		assertEquals(expected.linesBeforeEnd, actual.linesBeforeEnd);
+		assertEquals(expected.linesAfterStart, actual.linesAfterStart);
+		assertEquals(expected.linesAfterEnd, actual.linesAfterEnd);
+		assertEquals(expected.nameBefore, actual.nameBefore);
+		assertEquals(expected.nameAfter, actual.nameAfter);
+	}
+
+	/**
+	 * Assert that both parsers accept the line and extract the same fields.
+	 */
+	private static ParsedLine assertBothParse(final String line) {
+		final ParsedLine expected = RepentDataParser.parseWithRegex(line);
+		assertNotNull(line, expected);
+		final ParsedLine actual = RepentDataParser.parseFast(line);
+		assertNotNull(line, actual);
+		assertSameFields(expected, actual);
+		return actual;
+	}
+
+	/**
+	 * Assert that neither parser accepts the line.
+	 */
+	private static void assertNoneParses(final String line) {
+		assertNull(line, RepentDataParser.parseWithRegex(line));
+		assertNull(line, RepentDataParser.parseFast(line));
+	}
+
+	@Test
+	public void testMultipleMarkers() {
+		final ParsedLine parsed = assertBothParse("src/A.java_DiffLine_1-2/B.java_DiffLine_10-11:3-4,5-6:a->b");
+		assertEquals("src/A.java_DiffLine_1-2/B.java", parsed.filename);
+		assertEquals(10, parsed.fromRevision);
+		assertEquals(11, parsed.toRevision);
+	}
+
+	@Test
+	public void testNoDash() {
+		final ParsedLine parsed = assertBothParse("src/A.java_DiffLine_10-11:3,5:count->size");
+		assertEquals(3, parsed.linesBeforeStart);
+		assertEquals(3, parsed.linesBeforeEnd);
+		assertEquals(5, parsed.linesAfterStart);
+		assertEquals(5, parsed.linesAfterEnd);
+		assertBothParse("src/A.java_DiffLine_10-11:3,5-7:count->size");
+		assertBothParse("src/A.java_DiffLine_10-11:3-4,5:count->size");
+	}
+
+	@Test
+	public void testRange() {
+		final ParsedLine parsed = assertBothParse("src/A.java_DiffLine_10-11:3-4,5-6:count->size");
+		assertEquals("src/A.java", parsed.filename);
+		assertEquals(3, parsed.linesBeforeStart);
+		assertEquals(4, parsed.linesBeforeEnd);
+		assertEquals(5, parsed.linesAfterStart);
+		assertEquals(6, parsed.linesAfterEnd);
+		assertEquals("count", parsed.nameBefore);
+		assertEquals("size", parsed.nameAfter);
+	}
+
+	/**
+	 * The fast path leaves repeated ranges to the regex.
+	 */
+	@Test
+	public void testRepeatedRanges() {
+		final String line = "src/A.java_DiffLine_10-11:3-4,5-6,7-8,9-10:a->b";
+		assertNull(RepentDataParser.parseFast(line));
+		final ParsedLine parsed = RepentDataParser.parseWithRegex(line);
+		assertNotNull(parsed);
+		assertEquals("a", parsed.nameBefore);
+		assertEquals("b", parsed.nameAfter);
+	}
+
+	@Test
+	public void testTrailingDash() {
+		final ParsedLine parsed = assertBothParse("src/A.java_DiffLine_10-11:3-,5-:a->b");
+		assertEquals(3, parsed.linesBeforeEnd);
+		assertEquals(5, parsed.linesAfterEnd);
+	}
+
+	@Test
+	public void testTrailingText() {
+		final ParsedLine parsed = assertBothParse("src/A.java_DiffLine_10-11:3-4,5-6:a->b c");
+		assertEquals("b", parsed.nameAfter);
+	}
+
+	@Test
+	public void testWhitespace() {
+		assertNoneParses("src/My A.java_DiffLine_10-11:3-4,5-6:a->b");
+		assertNoneParses("src/A.java_DiffLine_10-11:3-4,5-6:a b->c");
+		assertNoneParses("src/A.java_DiffLine_10-11:3-4,5-6:a-> b");
+	}
+
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package renaming.ngram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import codemining.java.tokenizers.JavaTokenizer;
+import codemining.lm.ngram.AbstractNGramLM;
+import codemining.lm.ngram.NGram;
+import codemining.lm.ngram.NGramLM;
+import codemining.lm.ngram.smoothing.StupidBackoff;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
+ *
+ */
+public class LeaveOneOutNGramCountsTest {
+
+	private static final int N = 3;
+
+	private static final List<List<String>> CORPUS = Lists.newArrayList();
+	static {
+		CORPUS.add(Lists.newArrayList("int", "a", "=", "b", "+", "c", ";"));
+		CORPUS.add(Lists.newArrayList("int", "a", "=", "b", ";"));
+		CORPUS.add(Lists.newArrayList("int", "d", "=", "b", "+", "d", ";"));
+		CORPUS.add(Lists.newArrayList("return", "a", "+", "c", ";"));
+	}
+
+	/**
+	 * The vocabulary is not removed when holding out, so the expected models
+	 * are built on the vocabulary of the whole corpus.
+	 */
+	private static AbstractNGramLM trainModel(
+			final Collection<List<String>> sentences) {
+		final Set<String> vocabulary = Sets.newHashSet();
+		for (final List<String> sentence : CORPUS) {
+			vocabulary.addAll(sentence);
+		}
+		final NGramLM lm = new NGramLM(N, new JavaTokenizer());
+		lm.getTrie().buildVocabularySymbols(vocabulary);
+		lm.addSentences(sentences, false);
+		return lm;
+	}
+
+	private static List<NGram<String>> getQueryNGrams() {
+		final List<NGram<String>> queries = Lists.newArrayList();
+		for (final List<String> sentence : CORPUS) {
+			queries.addAll(LeaveOneOutNGramCounts.getSentenceNGrams(sentence,
+					N));
+		}
+		// An n-gram that does not appear anywhere
+		queries.add(NGram.constructNgramAt(2,
+				Lists.newArrayList("return", "d", "-"), N));
+		return queries;
+	}
+
+	private static void assertSameProbabilities(final AbstractNGramLM expected,
+			final AbstractNGramLM actual) {
+		for (final NGram<String> ngram : getQueryNGrams()) {
+			assertEquals(ngram.toString(), expected.getProbabilityFor(ngram),
+					actual.getProbabilityFor(ngram), 1E-10);
+		}
+	}
+
+	/**
+	 * Return the corpus without the sentence at the given index.
+	 */
+	private static List<List<String>> getCorpusWithout(final int heldOut) {
+		final List<List<String>> sentences = Lists.newArrayList(CORPUS);
+		sentences.remove(heldOut);
+		return sentences;
+	}
+
+	@Test
+	public void testConcurrentHeldOutModelsAreIndependent() throws Exception {
+		final AbstractNGramLM fullModel = trainModel(CORPUS);
+		final LeaveOneOutNGramCounts counts = new LeaveOneOutNGramCounts(
+				fullModel, 2);
+		final CountDownLatch bothAcquired = new CountDownLatch(2);
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final List<Future<Void>> results = Lists.newArrayList();
+			for (int i = 0; i < 2; i++) {
+				final int heldOut = i;
+				results.add(executor.submit(() -> counts.callWithout(
+						LeaveOneOutNGramCounts.getSentenceNGrams(
+								CORPUS.get(heldOut), N),
+						heldOutModel -> {
+							// Both tasks hold a model at the same time
+							bothAcquired.countDown();
+							bothAcquired.await(10, TimeUnit.SECONDS);
+							assertEquals(0, bothAcquired.getCount());
+							assertSameProbabilities(
+									trainModel(getCorpusWithout(heldOut)),
+									heldOutModel);
+							return null;
+						})));
+			}
+			for (final Future<Void> result : results) {
+				result.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertSameProbabilities(trainModel(CORPUS), fullModel);
+	}
+
+	@Test
+	public void testFailingTaskRestoresCounts() throws Exception {
+		final LeaveOneOutNGramCounts counts = new LeaveOneOutNGramCounts(
+				trainModel(CORPUS), 1);
+		try {
+			counts.callWithout(
+					LeaveOneOutNGramCounts.getSentenceNGrams(CORPUS.get(0), N),
+					heldOutModel -> {
+						throw new IllegalStateException();
+					});
+			fail("expected IllegalStateException");
+		} catch (final IllegalStateException e) {
+			// Expected
+		}
+
+		// The single replica is reused, with all its counts
+		counts.callWithout(Lists.<NGram<String>> newArrayList(),
+				heldOutModel -> {
+					assertSameProbabilities(trainModel(CORPUS), heldOutModel);
+					return null;
+				});
+	}
+
+	/**
+	 * The maximum likelihood probabilities are the ratios of the counts, so
+	 * this checks that the counts under callWithout(f) match the counts of a
+	 * model trained without f.
+	 */
+	@Test
+	public void testHeldOutMatchesModelTrainedWithout() throws Exception {
+		final AbstractNGramLM fullModel = trainModel(CORPUS);
+		final LeaveOneOutNGramCounts counts = new LeaveOneOutNGramCounts(
+				fullModel);
+
+		for (int i = 0; i < CORPUS.size(); i++) {
+			final AbstractNGramLM expected = trainModel(getCorpusWithout(i));
+			counts.callWithout(
+					LeaveOneOutNGramCounts.getSentenceNGrams(CORPUS.get(i), N),
+					heldOutModel -> {
+						assertSameProbabilities(expected, heldOutModel);
+						return null;
+					});
+		}
+		// The trained model is never modified
+		assertSameProbabilities(trainModel(CORPUS), fullModel);
+	}
+
+	@Test
+	public void testSmoothedHeldOutMatchesModelTrainedWithout()
+			throws Exception {
+		final LeaveOneOutNGramCounts counts = new LeaveOneOutNGramCounts(
+				new StupidBackoff(trainModel(CORPUS)));
+
+		for (int i = 0; i < CORPUS.size(); i++) {
+			final AbstractNGramLM expected = new StupidBackoff(
+					trainModel(getCorpusWithout(i)));
+			counts.callWithout(
+					LeaveOneOutNGramCounts.getSentenceNGrams(CORPUS.get(i), N),
+					heldOutModel -> {
+						assertSameProbabilities(expected, heldOutModel);
+						return null;
+					});
+		}
+	}
+
+}